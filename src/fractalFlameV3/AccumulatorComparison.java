@@ -0,0 +1,132 @@
+package fractalFlameV3;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+
+import com.google.gson.Gson;
+
+import fractalFlameV3.accumulator.AccumulatorType;
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.variations.Variation;
+import fractalFlameV3.variations.VariationContext;
+
+/**
+ * Measures how much the final image changes when the histogram is stored in each AccumulatorType.
+ * The same seeded stream of samples is hit into a histogram of every type, each histogram is tone
+ * mapped, and the pixels are compared against the SYNCHRONIZED (double precision) image.
+ *
+ * usage: AccumulatorComparison [genome file] [width] [height] [ss] [samples]
+ *
+ * @author aaron
+ *
+ */
+public final class AccumulatorComparison {
+
+	public static void main(final String[] args) throws FileNotFoundException {
+		final String genomeFile = (args.length > 0) ? args[0] : "images/last.fractalgenome";
+		final int swid = (args.length > 1) ? Integer.parseInt(args[1]) : 640;
+		final int shei = (args.length > 2) ? Integer.parseInt(args[2]) : 360;
+		final int ss = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+		final long samples = (args.length > 4) ? Long.parseLong(args[4]) : 10000000;
+
+		final FractalGenome genome = new Gson().fromJson(new FileReader(genomeFile), FractalGenome.class);
+
+		final AccumulatorType[] types = AccumulatorType.values();
+		final Histogram[] histograms = new Histogram[types.length];
+		final int[][] images = new int[types.length][swid * shei];
+		for (final int i : Utils.range(types.length)) {
+			histograms[i] = new Histogram(swid, shei, ss, types[i]);
+			// picks up the genome's camera
+			histograms[i].updatePixels(images[i], genome);
+		}
+
+		iterate(genome, histograms, samples, new BlockRandom(0));
+
+		for (final int i : Utils.range(types.length)) {
+			histograms[i].updatePixels(images[i], genome);
+		}
+
+		final int[] reference = images[AccumulatorType.SYNCHRONIZED.ordinal()];
+		System.out.println("# type\t\tbytes/cell\tmax error\tmean error\tpixels off by > 1");
+		for (final int i : Utils.range(types.length)) {
+			int maxError = 0;
+			long totalError = 0;
+			long offByMoreThanOne = 0;
+			for (final int p : Utils.range(reference.length)) {
+				int pixelError = 0;
+				for (int shift = 0; shift <= 16; shift += 8) {
+					final int error = Math.abs(((reference[p] >> shift) & 0xFF) - ((images[i][p] >> shift) & 0xFF));
+					totalError += error;
+					pixelError = Utils.max(pixelError, error);
+				}
+				maxError = Utils.max(maxError, pixelError);
+				offByMoreThanOne += (pixelError > 1) ? 1 : 0;
+			}
+			System.out.println("# " + types[i] + "\t" + types[i].bytesPerCell + "\t\t"
+			        + maxError + "\t\t" + ((double) totalError / (3 * reference.length)) + "\t"
+			        + ((100.0 * offByMoreThanOne) / reference.length) + "%");
+		}
+	}
+
+	/**
+	 * runs the chaos game the same way a FractalThread does, but from a seeded random number
+	 * generator and for a fixed number of samples, hitting every histogram with each sample
+	 */
+	static void iterate(final FractalGenome source, final Histogram[] histograms, final long samples,
+	        final BlockRandom r) {
+		final FractalGenome genome = new FractalGenome(source);
+		final Variation[] variations = genome.getVariationObjects(genome);
+		final int needs = Variation.needs(variations);
+		final double[] flatAffine = new GenomeSnapshot(genome).affine;
+		final VariationContext in = new VariationContext();
+		in.random = r;
+
+		final Vec2D p = new Vec2D(r.nextDouble(-1, 1), r.nextDouble(-1, 1));
+		final Vec2D tmpVec = new Vec2D(0, 0);
+		final Vec2D addVec = new Vec2D(0, 0);
+		final ColorSet currentColor = new ColorSet(0);
+
+		int iters = 0;
+		long hits = 0;
+		while (hits < samples) {
+			final int j = genome.affineProbabilities[r.nextInt(genome.affineProbabilities.length)];
+
+			affine(genome.affineMatrices[j], p, tmpVec);
+			p.set(tmpVec);
+			currentColor.hit(genome.affineColor[j]);
+
+			if (genome.variationToggle) {
+				addVec.set(0, 0);
+				in.set(p, flatAffine, j, needs);
+				for (final Variation v : variations) {
+					addVec.add(v.v(in, tmpVec).mul(genome.variationWeights[v.ID]));
+				}
+				p.set(addVec);
+			}
+
+			if (genome.finalTransformToggle) {
+				affine(genome.finalTransformMatrices[j], p, tmpVec);
+				p.set(tmpVec);
+				currentColor.hit(genome.finalColor[j]);
+			}
+
+			if (Double.isInfinite(p.x) || Double.isInfinite(p.y) || Double.isNaN(p.x) || Double.isNaN(p.y)) {
+				p.set(r.nextDouble(-1, 1), r.nextDouble(-1, 1));
+				currentColor.set(0, 0, 0);
+				iters = 0;
+			} else if (++iters >= 50) {
+				for (final Histogram h : histograms) {
+					h.hit(p, currentColor);
+				}
+				hits++;
+			}
+		}
+	}
+
+	private static void affine(final double[][] a, final Vec2D vectorIn, final Vec2D vectorOut) {
+		final double x = (vectorIn.x * a[0][0]) + (vectorIn.y * a[0][1]) + (a[0][2]);
+		final double y = (vectorIn.x * a[1][0]) + (vectorIn.y * a[1][1]) + (a[1][2]);
+		vectorOut.set(x, y);
+	}
+}
@@ -0,0 +1,149 @@
+package fractalFlameV3;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fractalFlameV3.accumulator.AccumulatorType;
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.DeterministicRender;
+import fractalFlameV3.fractalThread.RenderScheduler;
+
+/**
+ * Renders an animation that moves through a list of keyframe genomes, see
+ * FractalGenome.interpolate(), to a numbered PNG for each frame, written next to the first
+ * keyframe. Every frame is a DeterministicRender of the same number of iterations.
+ *
+ * The frames are pipelined. As soon as every unit of a frame has been handed out, the threads that
+ * run out of work move on to the next frame while the last units of the frame are finished, and a
+ * finished frame is tone mapped and written in the background while the next one plays. The
+ * snapshots of the next frame, and their kernels, are made while the current one plays.
+ *
+ * With a blur of more than 1 each frame is motion blurred, its units are shared between that many
+ * genomes spread over the half of the interval between frames around it. The camera is the frame's
+ * own for all of them.
+ *
+ * usage: Animate [width] [height] [ss] [iterations per frame] [frames >= 1] [blur >= 1] [keyframe
+ * genome files...]
+ *
+ * @author aaron
+ *
+ */
+public final class Animate {
+
+	public static void main(final String[] args) throws InterruptedException {
+		final int frames = (args.length >= 7) ? Integer.parseInt(args[4]) : 0;
+		final int blur = (args.length >= 7) ? Integer.parseInt(args[5]) : 0;
+		if ((frames < 1) || (blur < 1)) {
+			System.out.println("usage: Animate [width] [height] [ss] [iterations per frame] [frames >= 1] "
+			        + "[blur >= 1] [keyframe genome files...]");
+			return;
+		}
+		final int swid = Integer.parseInt(args[0]);
+		final int shei = Integer.parseInt(args[1]);
+		final int ss = Integer.parseInt(args[2]);
+		final long iterations = Long.parseLong(args[3]);
+
+		final FractalGenome[] keyframes = new FractalGenome[args.length - 6];
+		for (int i = 0; i < keyframes.length; i++) {
+			try {
+				keyframes[i] = Render.readGenome(args[6 + i]);
+			} catch (final IOException e) {
+				System.out.println(e.getLocalizedMessage());
+				return;
+			}
+		}
+
+		final Animate animate = new Animate(keyframes, frames, blur, swid, shei, ss, iterations);
+		final RenderScheduler scheduler = new RenderScheduler(Runtime.getRuntime().availableProcessors(),
+		        new BlockRandom(System.nanoTime()));
+		final ExecutorService writer = Executors.newSingleThreadExecutor();
+		Future<?> writing = null;
+
+		final long start = System.nanoTime();
+		DeterministicRender render = animate.frame(0);
+		scheduler.setTarget(render);
+		scheduler.resume();
+		for (int f = 0; f < frames; f++) {
+			final DeterministicRender next = ((f + 1) < frames) ? animate.frame(f + 1) : null;
+			render.awaitClaimed();
+			if (next != null) {
+				scheduler.setTarget(next);
+			}
+			render.await();
+
+			// wait for the last frame to be written before this one's handed over, so only three
+			// histograms are ever alive
+			Render.finish(writing);
+			writing = writer.submit(new Render.Write(render.getHistogram(), animate.genome(animate.position(f)),
+			        swid, shei, Render.outputFile(args[6], String.format("-%05d.png", f)), null));
+			render = next;
+		}
+		Render.finish(writing);
+		writer.shutdown();
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("# AN\t|\t " + frames + " frames of " + iterations + " iterations in " + seconds + "s, "
+		        + ((frames * 3600) / seconds) + " frames/hour");
+	}
+
+	private final FractalGenome[]	keyframes;
+	private final int	          frames;
+	private final int	          blur;
+	private final int	          swid;
+	private final int	          shei;
+	private final int	          ss;
+	private final long	          iterations;
+	private final AccumulatorType	type;
+
+	public Animate(final FractalGenome[] keyframes, final int frames, final int blur, final int swid,
+	        final int shei, final int ss, final long iterations) {
+		this.keyframes = keyframes;
+		this.frames = frames;
+		this.blur = blur;
+		this.swid = swid;
+		this.shei = shei;
+		this.ss = ss;
+		this.iterations = iterations;
+		type = Render.accumulatorType(swid, shei, ss);
+	}
+
+	/**
+	 * where frame f is between the keyframes, from 0 at the first keyframe to (keyframes - 1) at
+	 * the last
+	 */
+	public final double position(final int f) {
+		return (frames > 1) ? ((double) f * (keyframes.length - 1)) / (frames - 1) : 0;
+	}
+
+	/**
+	 * the genome at a position between the keyframes
+	 */
+	public final FractalGenome genome(final double position) {
+		if (keyframes.length == 1) {
+			return keyframes[0];
+		}
+		final int k = Utils.min((int) position, keyframes.length - 2);
+		return FractalGenome.interpolate(keyframes[k], keyframes[k + 1], position - k);
+	}
+
+	/**
+	 * returns the render of frame f into a new histogram, the sub frames of a blurred frame are
+	 * spread over half of the interval between frames, centered on the frame
+	 */
+	public final DeterministicRender frame(final int f) {
+		final double position = position(f);
+		final double interval = (frames > 1) ? (keyframes.length - 1.0) / (frames - 1) : 0;
+		final GenomeSnapshot[] genomes = new GenomeSnapshot[blur];
+		for (int j = 0; j < blur; j++) {
+			final double offset = (((j + 0.5) / blur) - 0.5) * (interval / 2);
+			genomes[j] = new GenomeSnapshot(genome(Utils.constrain(position + offset, 0, keyframes.length - 1)), false);
+		}
+
+		final Histogram h = new Histogram(swid, shei, ss, type);
+		h.setCamera(new GenomeSnapshot(genome(position), false));
+		return new DeterministicRender(genomes, h, iterations, true);
+	}
+}
@@ -0,0 +1,103 @@
+package fractalFlameV3;
+
+/**
+ * A fast random number generator for the iteration loop, owned by a single thread. Numbers are
+ * generated BLOCK at a time with xoroshiro128+ into an array, and handed out from the array, so
+ * getting a number is an array read and there is no thread local lookup or shared state.
+ *
+ * split() returns a new generator seeded from this one through SplitMix64, so one generator can
+ * hand out independent streams to every thread and every unit of work.
+ *
+ * @author aaron
+ *
+ */
+public final class BlockRandom {
+	/**
+	 * number of values generated at a time
+	 */
+	private static final int	BLOCK	= 1024;
+
+	/**
+	 * xoroshiro128+ state, never all zero
+	 */
+	private long	         s0, s1;
+
+	private final long[]	 block	= new long[BlockRandom.BLOCK];
+
+	/**
+	 * index of the next unused value in block
+	 */
+	private int	             next	= BlockRandom.BLOCK;
+
+	public BlockRandom(final long seed) {
+		s0 = BlockRandom.splitMix(seed);
+		s1 = BlockRandom.splitMix(s0);
+		if ((s0 | s1) == 0) {
+			s1 = 1;
+		}
+	}
+
+	/**
+	 * returns a new generator with a stream independent of this one
+	 */
+	public final BlockRandom split() {
+		return new BlockRandom(BlockRandom.splitMix(nextLong()));
+	}
+
+	/**
+	 * the SplitMix64 finalizer of x + the golden gamma, used to spread seeds over the whole state
+	 */
+	public static final long splitMix(final long x) {
+		long z = x + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private final void refill() {
+		long a = s0;
+		long b = s1;
+		for (int i = 0; i < BlockRandom.BLOCK; i++) {
+			block[i] = a + b;
+			b ^= a;
+			a = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+			b = Long.rotateLeft(b, 37);
+		}
+		s0 = a;
+		s1 = b;
+		next = 0;
+	}
+
+	public final long nextLong() {
+		if (next == BlockRandom.BLOCK) {
+			refill();
+		}
+		return block[next++];
+	}
+
+	/**
+	 * returns a double in [0, 1)
+	 */
+	public final double nextDouble() {
+		// the top bits of xoroshiro128+ are the most random
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * returns a double in [min, max)
+	 */
+	public final double nextDouble(final double min, final double max) {
+		return min + (nextDouble() * (max - min));
+	}
+
+	/**
+	 * returns an int in [0, n), n must be positive
+	 */
+	public final int nextInt(final int n) {
+		return (int) (((nextLong() >>> 32) * n) >>> 32);
+	}
+
+	public final boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+}
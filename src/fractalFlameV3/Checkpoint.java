@@ -0,0 +1,269 @@
+package fractalFlameV3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.DeterministicRender;
+
+/**
+ * A checkpoint of a DeterministicRender, so a long render that's stopped can be carried on later,
+ * or on another machine, from where it left off. It holds the histogram and everything the render
+ * depends on: the genome with its camera, the size of the histogram, the number of iterations,
+ * the kind of ChaosGame, whether FastMath was fast, and the next unit to merge. Each unit's random
+ * numbers are seeded by the genome and the unit's number, so the next unit is all there is to the
+ * position of the random number streams, and a resumed render comes out bit for bit the same as
+ * one that was never stopped.
+ *
+ * The histogram is captured while the render holds its merges, see DeterministicRender.hold(), so
+ * the threads carry on playing while it's captured. Each screen tile of the histogram is deflated
+ * on its own, and tiles no sample has landed in are left out, so the checkpoint of a sparse
+ * histogram is small. The file is written with a FileChannel to a temporary file that's then moved
+ * over the last checkpoint, so there's always a whole checkpoint on disk.
+ *
+ * The file is big endian: MAGIC, the length of the genome's JSON and the JSON, swid, shei, ss,
+ * iterations, whether it's batched, whether FastMath was fast, the next unit and the misses, then
+ * the length of each tile in bytes followed by the tiles, in the order of the screen tiles.
+ *
+ * @author aaron
+ *
+ */
+public final class Checkpoint {
+	/**
+	 * first int of a checkpoint, "FFC1"
+	 */
+	private static final int	   MAGIC	= 0x46464331;
+
+	private final FractalGenome	genome;
+	private final int	           swid;
+	private final int	           shei;
+	private final int	           ss;
+	private final long	           iterations;
+	private final boolean	       batched;
+	private final boolean	       fast;
+
+	/**
+	 * the histogram holds exactly the units before this one
+	 */
+	private final long	           unit;
+
+	private final long	           misses;
+
+	/**
+	 * the deflated tiles of the histogram, see Histogram.deflateTile()
+	 */
+	private final byte[][]	       tiles;
+
+	private Checkpoint(final FractalGenome genome, final int swid, final int shei, final int ss,
+	        final long iterations, final boolean batched, final boolean fast, final long unit, final long misses,
+	        final byte[][] tiles) {
+		this.genome = genome;
+		this.swid = swid;
+		this.shei = shei;
+		this.ss = ss;
+		this.iterations = iterations;
+		this.batched = batched;
+		this.fast = fast;
+		this.unit = unit;
+		this.misses = misses;
+		this.tiles = tiles;
+	}
+
+	/**
+	 * captures render, which is rendering genome into a histogram of swid by shei with ss super
+	 * samples
+	 */
+	public static final Checkpoint capture(final FractalGenome genome, final int swid, final int shei,
+	        final int ss, final DeterministicRender render) throws InterruptedException {
+		final Histogram h = render.getHistogram();
+		final byte[][] tiles = new byte[h.getTilesX() * h.getTilesY()][];
+		final long[] misses = new long[1];
+		final long unit = render.hold(new Runnable() {
+			@Override
+			public void run() {
+				final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				for (int t = 0; t < tiles.length; t++) {
+					tiles[t] = h.deflateTile(t, deflater);
+				}
+				deflater.end();
+				misses[0] = h.misses.get();
+			}
+		});
+		return new Checkpoint(genome, swid, shei, ss, render.getIterations(), render.isBatched(), render.isFast(),
+		        unit, misses[0], tiles);
+	}
+
+	/**
+	 * true if the checkpoint is of a render of genome with these settings, with FastMath as it is
+	 * now
+	 */
+	public final boolean matches(final FractalGenome genome, final int swid, final int shei, final int ss,
+	        final long iterations, final boolean batched) {
+		return (genome.imageHash() == this.genome.imageHash()) && (swid == this.swid) && (shei == this.shei)
+		        && (ss == this.ss) && (iterations == this.iterations) && (batched == this.batched)
+		        && (fast == FastMath.isFast());
+	}
+
+	/**
+	 * restores the histogram into h, which must be empty and the same size, and returns the render
+	 * that carries on from where the checkpoint left off
+	 */
+	public final DeterministicRender resume(final Histogram h) throws IOException {
+		final GenomeSnapshot snapshot = new GenomeSnapshot(genome);
+		h.setCamera(snapshot);
+		final Inflater inflater = new Inflater();
+		try {
+			for (int t = 0; t < tiles.length; t++) {
+				h.inflateTile(t, tiles[t], inflater);
+			}
+		} finally {
+			inflater.end();
+		}
+		h.misses.addAndGet(misses);
+		return new DeterministicRender(snapshot, h, iterations, batched, unit, DeterministicRender.units(iterations));
+	}
+
+	public final FractalGenome getGenome() {
+		return genome;
+	}
+
+	/**
+	 * the next unit to merge, the histogram holds exactly the units before it
+	 */
+	public final long getUnit() {
+		return unit;
+	}
+
+	/**
+	 * writes the checkpoint to file, replacing the last one once it's been written
+	 */
+	public final void write(final File file) throws IOException {
+		final long start = System.nanoTime();
+		final byte[] json = new Gson().toJson(genome).getBytes("UTF-8");
+		final ByteBuffer header = ByteBuffer.allocate(4 + 4 + json.length + 12 + 8 + 2 + 16 + (4 * tiles.length));
+		header.putInt(MAGIC);
+		header.putInt(json.length);
+		header.put(json);
+		header.putInt(swid);
+		header.putInt(shei);
+		header.putInt(ss);
+		header.putLong(iterations);
+		header.put((byte) (batched ? 1 : 0));
+		header.put((byte) (fast ? 1 : 0));
+		header.putLong(unit);
+		header.putLong(misses);
+		long bytes = header.capacity();
+		for (final byte[] tile : tiles) {
+			header.putInt(tile.length);
+			bytes += tile.length;
+		}
+		header.flip();
+
+		final ByteBuffer[] buffers = new ByteBuffer[1 + tiles.length];
+		buffers[0] = header;
+		for (int t = 0; t < tiles.length; t++) {
+			buffers[t + 1] = ByteBuffer.wrap(tiles[t]);
+		}
+
+		final Path path = file.toPath();
+		final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		        StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			long written = 0;
+			while (written < bytes) {
+				written += channel.write(buffers);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		System.out.println("# CP\t|\t " + file + " at unit " + unit + ", " + bytes + " bytes in "
+		        + ((System.nanoTime() - start) / 1e9) + "s");
+	}
+
+	/**
+	 * reads a checkpoint written by write(). It's read into the heap rather than mapped, as a
+	 * mapping would stay open until it was garbage collected, and on some systems a file that's
+	 * mapped can't be replaced or deleted
+	 */
+	public static final Checkpoint read(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final ByteBuffer start = Checkpoint.read(channel, file, 8);
+			if (start.getInt() != MAGIC) {
+				throw new IOException(file + " isn't a checkpoint");
+			}
+			// the JSON is followed by swid, shei, ss, iterations, the two flags, unit and misses
+			final int settings = 12 + 8 + 2 + 16;
+			final ByteBuffer in = Checkpoint.read(channel, file, start.getInt() + settings);
+			final byte[] json = new byte[in.capacity() - settings];
+			in.get(json);
+			final FractalGenome genome = new Gson().fromJson(new String(json, "UTF-8"), FractalGenome.class);
+			final int swid = in.getInt();
+			final int shei = in.getInt();
+			final int ss = in.getInt();
+			final long iterations = in.getLong();
+			final boolean batched = in.get() != 0;
+			final boolean fast = in.get() != 0;
+			final long unit = in.getLong();
+			final long misses = in.getLong();
+
+			final int tilesX = (swid + Histogram.TILE_PIXELS - 1) / Histogram.TILE_PIXELS;
+			final int tilesY = (shei + Histogram.TILE_PIXELS - 1) / Histogram.TILE_PIXELS;
+			final byte[][] tiles = new byte[tilesX * tilesY][];
+			final ByteBuffer lengths = Checkpoint.read(channel, file, 4 * tiles.length);
+			for (int t = 0; t < tiles.length; t++) {
+				tiles[t] = new byte[lengths.getInt()];
+			}
+			for (final byte[] tile : tiles) {
+				Checkpoint.read(channel, file, ByteBuffer.wrap(tile));
+			}
+			return new Checkpoint(genome, swid, shei, ss, iterations, batched, fast, unit, misses, tiles);
+		} catch (final JsonParseException e) {
+			throw new IOException(file + " has a bad genome", e);
+		} catch (final RuntimeException e) {
+			// a negative length
+			throw new IOException(file + " is corrupt", e);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * reads the next length bytes of file from channel into a new buffer, ready to be read
+	 */
+	private static final ByteBuffer read(final FileChannel channel, final File file, final int length)
+	        throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		Checkpoint.read(channel, file, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * fills buffer with the next bytes of file from channel
+	 */
+	private static final void read(final FileChannel channel, final File file, final ByteBuffer buffer)
+	        throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException(file + " is truncated");
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package fractalFlameV3;
+
+/**
+ * An adaptive blur that runs on the downsampled histogram before it is tone mapped. Each pixel is
+ * replaced by a weighted average of its neighbourhood, and the radius of the neighbourhood shrinks
+ * as the density of the pixel grows, so sparse and noisy areas are smoothed out while dense areas
+ * keep their detail:
+ *
+ * radius = max(minRadius, maxRadius / (1 + density)^curve)
+ *
+ * where density is the average number of samples in each histogram cell of the pixel. Radii are
+ * rounded to the nearest half pixel, and a kernel is precomputed for each of those radii.
+ *
+ * @author aaron
+ *
+ */
+public final class DensityEstimationFilter {
+	/**
+	 * kernels are precomputed for radii in steps of 1 / STEPS_PER_PIXEL
+	 */
+	private static final int	STEPS_PER_PIXEL	= 2;
+
+	/**
+	 * densities are looked up by the exponent and top DENSITY_MANTISSA_BITS bits of (1 + density)
+	 */
+	private static final int	DENSITY_MANTISSA_BITS	= 4;
+
+	private static final int	DENSITY_SHIFT	= 52 - DENSITY_MANTISSA_BITS;
+
+	private static final long	ONE	            = Double.doubleToRawLongBits(1.0) >>> DENSITY_SHIFT;
+
+	/**
+	 * kernel to use for each (1 + density), the densities above the end of the table use the last
+	 * entry
+	 */
+	private final int[]	        kernelOfDensity;
+
+	/**
+	 * kernels[k] holds the weights of a (2 * kernelRadius[k] + 1) square kernel, row by row
+	 */
+	private final double[][]	kernels;
+
+	private final int[]	        kernelRadius;
+
+	/**
+	 * @param maxRadius
+	 *            radius used for empty pixels, in pixels
+	 * @param minRadius
+	 *            smallest radius used for dense pixels, in pixels
+	 * @param curve
+	 *            how quickly the radius shrinks as the density grows
+	 */
+	public DensityEstimationFilter(final double maxRadius, final double minRadius, final double curve) {
+		final int nKernels = (int) Math.ceil(maxRadius * STEPS_PER_PIXEL) + 1;
+		kernels = new double[nKernels][];
+		kernelRadius = new int[nKernels];
+
+		for (final int k : Utils.range(nKernels)) {
+			final double radius = (double) k / STEPS_PER_PIXEL;
+			final int r = (int) Math.floor(radius);
+			final int width = (2 * r) + 1;
+			kernelRadius[k] = r;
+			kernels[k] = new double[width * width];
+
+			double sum = 0;
+			for (int dy = -r; dy <= r; dy++) {
+				for (int dx = -r; dx <= r; dx++) {
+					// Epanechnikov kernel, a radius under one pixel leaves the pixel as it is
+					final double d = ((dx * dx) + (dy * dy)) / ((radius + 0.5) * (radius + 0.5));
+					final double w = Utils.max(1 - d, 0);
+					kernels[k][(dx + r) + ((dy + r) * width)] = w;
+					sum += w;
+				}
+			}
+			for (int i = 0; i < kernels[k].length; i++) {
+				kernels[k][i] /= sum;
+			}
+		}
+
+		// find the kernel of every density until the radius bottoms out at minRadius
+		final int minKernel = (int) Math.round(Utils.min(minRadius, maxRadius) * STEPS_PER_PIXEL);
+		int size = 1;
+		while ((kernelFor(size - 1, maxRadius, curve) > minKernel) && (size < (64 << DENSITY_MANTISSA_BITS))) {
+			size++;
+		}
+		kernelOfDensity = new int[size];
+		for (int i = 0; i < size; i++) {
+			kernelOfDensity[i] = Utils.max(kernelFor(i, maxRadius, curve), minKernel);
+		}
+	}
+
+	private static final int kernelFor(final int densityIndex, final double maxRadius, final double curve) {
+		final double onePlusDensity = Double.longBitsToDouble((densityIndex + ONE) << DENSITY_SHIFT);
+		return (int) Math.round((maxRadius / Math.pow(onePlusDensity, curve)) * STEPS_PER_PIXEL);
+	}
+
+	/**
+	 * builds the summed area table of the counts in image, so filter() can skip pixels with nothing
+	 * around them
+	 *
+	 * @param image
+	 *            the downsampled histogram, laid out as in Histogram
+	 * @param sat
+	 *            sat[(x) + (y * (swid + 1))] is set to the sum of the counts of every pixel above
+	 *            and to the left of (x, y), it must hold (swid + 1) * (shei + 1) values
+	 */
+	public final void prepare(final double[] image, final double[] sat, final int swid, final int shei) {
+		final int satWid = swid + 1;
+		for (int x = 0; x < satWid; x++) {
+			sat[x] = 0;
+		}
+		for (int y = 0; y < shei; y++) {
+			double rowSum = 0;
+			sat[(y + 1) * satWid] = 0;
+			for (int x = 0; x < swid; x++) {
+				rowSum += image[(5 * (x + (y * swid))) + 3];
+				sat[(x + 1) + ((y + 1) * satWid)] = sat[(x + 1) + (y * satWid)] + rowSum;
+			}
+		}
+	}
+
+	/**
+	 * the widest any kernel reaches from its pixel, a filtered pixel only depends on the pixels this
+	 * close to it
+	 */
+	public final int getMaxRadius() {
+		return kernelRadius[kernelRadius.length - 1];
+	}
+
+	/**
+	 * filters the rectangle [ixStart, ixEnd) x [iyStart, iyEnd) of image into filtered, which is
+	 * laid out the same way
+	 *
+	 * @param ssSquared
+	 *            number of histogram cells in each pixel
+	 * @param sat
+	 *            summed area table built by prepare()
+	 */
+	public final void filter(final double[] image, final double[] filtered, final double[] sat, final int swid,
+	        final int shei, final int ssSquared, final int ixStart, final int ixEnd, final int iyStart,
+	        final int iyEnd) {
+		final int satWid = swid + 1;
+
+		for (int iy = iyStart; iy < iyEnd; iy++) {
+			for (int ix = ixStart; ix < ixEnd; ix++) {
+				final int out = 5 * (ix + (iy * swid));
+
+				final double onePlusDensity = 1 + (image[out + 3] / ssSquared);
+				final int d = (int) ((Double.doubleToRawLongBits(onePlusDensity) >>> DENSITY_SHIFT) - ONE);
+				final int k = kernelOfDensity[Utils.min(d, kernelOfDensity.length - 1)];
+				final int r = kernelRadius[k];
+
+				final int x0 = Utils.max(ix - r, 0);
+				final int y0 = Utils.max(iy - r, 0);
+				final int x1 = Utils.min(ix + r + 1, swid);
+				final int y1 = Utils.min(iy + r + 1, shei);
+
+				// nothing landed anywhere in the kernel, most of the background
+				final double windowCount = (sat[x1 + (y1 * satWid)] - sat[x0 + (y1 * satWid)]
+				        - sat[x1 + (y0 * satWid)]) + sat[x0 + (y0 * satWid)];
+				if ((windowCount == 0) || (r == 0)) {
+					filtered[out + 0] = image[out + 0];
+					filtered[out + 1] = image[out + 1];
+					filtered[out + 2] = image[out + 2];
+					filtered[out + 3] = image[out + 3];
+					filtered[out + 4] = image[out + 4];
+					continue;
+				}
+
+				final double[] kernel = kernels[k];
+				final int width = (2 * r) + 1;
+				double red = 0, green = 0, blue = 0, count = 0, colored = 0, weight = 0;
+				for (int y = y0; y < y1; y++) {
+					for (int x = x0; x < x1; x++) {
+						final double w = kernel[((x - ix) + r) + (((y - iy) + r) * width)];
+						final int in = 5 * (x + (y * swid));
+						red += w * image[in + 0];
+						green += w * image[in + 1];
+						blue += w * image[in + 2];
+						count += w * image[in + 3];
+						colored += w * image[in + 4];
+						weight += w;
+					}
+				}
+
+				// renormalize for the part of the kernel that hangs off the edge of the screen
+				filtered[out + 0] = red / weight;
+				filtered[out + 1] = green / weight;
+				filtered[out + 2] = blue / weight;
+				filtered[out + 3] = count / weight;
+				filtered[out + 4] = colored / weight;
+			}
+		}
+	}
+}
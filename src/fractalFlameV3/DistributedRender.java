@@ -0,0 +1,405 @@
+package fractalFlameV3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalThread.DeterministicRender;
+
+/**
+ * Renders a genome too big for one machine by sharing it out between several RenderWorker
+ * processes, which are started here as child processes of this one. The units of the
+ * DeterministicRender of the genome are split into chunks, the workers take chunks one at a time
+ * and send back the chunk's histogram, and the histograms are merged in chunk order, counts summed
+ * and colours combined, before the result is tone mapped and written to a PNG next to the genome.
+ * Because each unit is seeded by its number and the chunks are merged in order, the image comes
+ * out the same however many workers there are.
+ *
+ * A chunk's histogram only holds the cells the chunk landed in, but that can be most of the
+ * histogram, so each chunk plays at least as many iterations as the histogram has cells and the
+ * merging never outweighs the playing. Chunks are only handed out up to AHEAD chunks per worker
+ * past the next chunk to merge, which bounds the histograms waiting to be merged, and they're
+ * merged by one worker thread at a time outside the lock, so the others carry on meanwhile.
+ *
+ * A worker that dies, or takes longer than CHUNK_TIMEOUT over a chunk, has its chunk put back for
+ * another worker and is restarted, up to MAX_RESTARTS times.
+ *
+ * The cores of the machine are split evenly between the workers.
+ *
+ * usage: DistributedRender [workers] [width] [height] [ss] [iterations] [genome file]
+ *
+ * @author aaron
+ *
+ */
+public final class DistributedRender {
+	/**
+	 * the fewest units of DeterministicRender.UNIT_ITERATIONS in each chunk. The size of a chunk
+	 * decides how the histograms are merged, so it's worked out from the size of the histogram
+	 * rather than from the number of workers
+	 */
+	public static final long	                   MIN_CHUNK_UNITS	= 64;
+
+	/**
+	 * chunks handed out per worker past the next chunk to merge
+	 */
+	private static final int	                   AHEAD	      = 2;
+
+	/**
+	 * a worker that takes longer than this over a chunk is assumed to be hung
+	 */
+	private static final long	                   CHUNK_TIMEOUT	= TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * times a worker is restarted before it's given up on
+	 */
+	private static final int	                   MAX_RESTARTS	= 3;
+
+	private final byte[]	                       genomeJson;
+	private final int	                           swid;
+	private final int	                           shei;
+	private final int	                           ss;
+	private final long	                           iterations;
+
+	private final Histogram	                       h;
+
+	private final long	                           chunkUnits;
+	private final int	                           chunks;
+
+	/**
+	 * chunks that were put back after their worker failed, and the next chunk to hand out. Guarded
+	 * by this
+	 */
+	private final ArrayDeque<Integer>	           retries	      = new ArrayDeque<Integer>();
+	private int	                                   next	      = 0;
+
+	/**
+	 * the most chunks handed out past the next chunk to merge, guarded by this
+	 */
+	private int	                                   window;
+
+	/**
+	 * histograms of chunks that have come back and are waiting for the chunks before them, the
+	 * next chunk to merge, and whether a thread is merging. Guarded by this
+	 */
+	private final Map<Integer, byte[]>	           results	      = new HashMap<Integer, byte[]>();
+	private int	                                   merged	      = 0;
+	private boolean	                               merging	      = false;
+
+	/**
+	 * workers that haven't been given up on, and the units that have come back. Guarded by this
+	 */
+	private int	                                   alive;
+	private long	                               unitsDone	  = 0;
+
+	/**
+	 * the first thing that went wrong merging a chunk, guarded by this
+	 */
+	private IOException	                           error	      = null;
+
+	/**
+	 * kills workers that are taking too long
+	 */
+	private final ScheduledExecutorService	       watchdog	  = Executors.newSingleThreadScheduledExecutor();
+
+	public static void main(final String[] args) throws InterruptedException {
+		if (args.length < 6) {
+			System.out.println("usage: DistributedRender [workers] [width] [height] [ss] [iterations] [genome file]");
+			return;
+		}
+		final int workers = Integer.parseInt(args[0]);
+		final int swid = Integer.parseInt(args[1]);
+		final int shei = Integer.parseInt(args[2]);
+		final int ss = Integer.parseInt(args[3]);
+		final long iterations = Long.parseLong(args[4]);
+		final String genomeFile = args[5];
+
+		final FractalGenome genome;
+		final byte[] genomeJson;
+		try {
+			genome = Render.readGenome(genomeFile);
+			genomeJson = new Gson().toJson(genome).getBytes("UTF-8");
+		} catch (final IOException e) {
+			System.out.println(e.getLocalizedMessage());
+			return;
+		}
+
+		final long start = System.nanoTime();
+		final DistributedRender render = new DistributedRender(genomeJson, swid, shei, ss, iterations);
+		render.h.setCamera(genome);
+		try {
+			render.render(workers);
+		} catch (final IOException e) {
+			System.out.println(e.getLocalizedMessage());
+			return;
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("# DT\t|\t " + render.chunks + " chunks on " + workers + " workers in " + seconds
+		        + "s, " + (long) (iterations / seconds) + " iterations/s, checksum "
+		        + Long.toHexString(render.h.checksum()));
+
+		final int[] pixels = new int[swid * shei];
+		render.h.updatePixels(pixels, genome);
+		try {
+			PngWriter.write(pixels, swid, shei, Render.pngFile(genomeFile));
+		} catch (final IOException e) {
+			System.out.println(e.getLocalizedMessage());
+		}
+	}
+
+	public DistributedRender(final byte[] genomeJson, final int swid, final int shei, final int ss,
+	        final long iterations) {
+		this.genomeJson = genomeJson;
+		this.swid = swid;
+		this.shei = shei;
+		this.ss = ss;
+		this.iterations = iterations;
+		h = new Histogram(swid, shei, ss, Render.accumulatorType(swid, shei, ss));
+		chunkUnits = DistributedRender.chunkUnits(swid, shei, ss);
+		chunks = (int) (((DeterministicRender.units(iterations) + chunkUnits) - 1) / chunkUnits);
+	}
+
+	/**
+	 * units in each chunk of a render into a histogram of swid by shei with ss super samples, at
+	 * least as many iterations as the histogram has cells
+	 */
+	public static final long chunkUnits(final int swid, final int shei, final int ss) {
+		final long cells = (long) swid * shei * ss * ss;
+		return Math.max(MIN_CHUNK_UNITS, DeterministicRender.units(cells));
+	}
+
+	/**
+	 * renders every chunk on the given number of worker processes, reporting progress every
+	 * second, and returns once they've all been merged
+	 */
+	public final void render(final int workers) throws IOException, InterruptedException {
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+		synchronized (this) {
+			alive = workers;
+			window = AHEAD * workers;
+		}
+		final Thread[] workerThreads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			workerThreads[i] = new Thread(new Worker(i, threads), "worker " + i);
+			workerThreads[i].start();
+		}
+
+		final long start = System.nanoTime();
+		synchronized (this) {
+			while ((merged < chunks) && (alive > 0) && (error == null)) {
+				wait(1000);
+				final double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.println("# DT\t|\t " + merged + "/" + chunks + " chunks merged, " + alive
+				        + " workers, " + (long) ((unitsDone * DeterministicRender.UNIT_ITERATIONS) / seconds)
+				        + " iterations/s");
+			}
+		}
+		for (final Thread t : workerThreads) {
+			t.join();
+		}
+		watchdog.shutdown();
+
+		if (error != null) {
+			throw error;
+		}
+		if (merged < chunks) {
+			throw new IOException("every worker failed, " + merged + "/" + chunks + " chunks merged");
+		}
+	}
+
+	private final synchronized boolean isFinished() {
+		return (merged == chunks) || (error != null);
+	}
+
+	/**
+	 * returns the next chunk to play, a chunk that was put back before any other, waiting while the
+	 * chunks handed out are a window ahead of the next chunk to merge. Returns -1 once every chunk
+	 * has been merged
+	 */
+	private final synchronized int claim() throws InterruptedException {
+		while (!isFinished()) {
+			final Integer retry = retries.poll();
+			if (retry != null) {
+				return retry;
+			}
+			if ((next < chunks) && (next < (merged + window))) {
+				return next++;
+			}
+			wait();
+		}
+		return -1;
+	}
+
+	/**
+	 * puts a chunk whose worker failed back for another worker
+	 */
+	private final synchronized void putBack(final int chunk) {
+		retries.add(chunk);
+		notifyAll();
+	}
+
+	/**
+	 * hands over the histogram of a chunk. If no other thread is merging, this one merges every
+	 * chunk that's next in line, reading each histogram without holding the lock. A chunk that was
+	 * timed out and came back anyway is only merged once
+	 */
+	private final void finish(final int chunk, final long units, final byte[] result) {
+		synchronized (this) {
+			if ((chunk < merged) || (merging && (chunk == merged)) || results.containsKey(chunk)) {
+				return;
+			}
+			results.put(chunk, result);
+			unitsDone += units;
+			if (merging) {
+				return;
+			}
+			merging = true;
+		}
+
+		while (true) {
+			final byte[] r;
+			synchronized (this) {
+				r = (error == null) ? results.remove(merged) : null;
+				if (r == null) {
+					merging = false;
+					notifyAll();
+					return;
+				}
+			}
+			try {
+				h.read(new ByteArrayInputStream(r));
+				synchronized (this) {
+					merged++;
+					notifyAll();
+				}
+			} catch (final IOException e) {
+				synchronized (this) {
+					error = e;
+				}
+			}
+		}
+	}
+
+	private final synchronized void workerDied() {
+		alive--;
+		notifyAll();
+	}
+
+	/**
+	 * runs a worker process, sending it chunks from the queue until every chunk has been merged,
+	 * and restarting it if it fails
+	 */
+	private final class Worker implements Runnable {
+		private final int	id;
+		private final int	threads;
+
+		private Process	  process;
+
+		Worker(final int id, final int threads) {
+			this.id = id;
+			this.threads = threads;
+		}
+
+		@Override
+		public void run() {
+			int restarts = 0;
+			try {
+				while (!isFinished()) {
+					try {
+						play();
+					} catch (final IOException e) {
+						System.out.println("worker " + id + " failed, " + e);
+						if (++restarts > MAX_RESTARTS) {
+							System.out.println("worker " + id + " has failed too often, giving up on it");
+							break;
+						}
+					} finally {
+						if (process != null) {
+							process.destroy();
+							process = null;
+						}
+					}
+				}
+			} catch (final InterruptedException e) {
+				// stop
+			}
+			workerDied();
+		}
+
+		/**
+		 * starts the process and plays chunks on it until every chunk has been merged, putting the
+		 * chunk it's playing back if anything goes wrong
+		 */
+		private final void play() throws IOException, InterruptedException {
+			final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			final ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+			        RenderWorker.class.getName(), Integer.toString(threads));
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			final Process p = builder.start();
+			process = p;
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(p.getOutputStream()));
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(p.getInputStream(), 1 << 16));
+			out.writeInt(genomeJson.length);
+			out.write(genomeJson);
+			out.writeInt(swid);
+			out.writeInt(shei);
+			out.writeInt(ss);
+			out.writeLong(iterations);
+			out.writeBoolean(FastMath.isFast());
+			out.flush();
+
+			while (true) {
+				final int chunk = claim();
+				if (chunk < 0) {
+					break;
+				}
+				final long first = chunk * chunkUnits;
+				final long last = Math.min(first + chunkUnits, DeterministicRender.units(iterations));
+				final ScheduledFuture<?> timeout = watchdog.schedule(new Runnable() {
+					@Override
+					public void run() {
+						System.out.println("worker " + id + " timed out on chunk " + chunk);
+						p.destroy();
+					}
+				}, CHUNK_TIMEOUT, TimeUnit.MILLISECONDS);
+				final byte[] result;
+				try {
+					out.writeInt(chunk);
+					out.writeLong(first);
+					out.writeLong(last);
+					out.flush();
+
+					if (in.readInt() != chunk) {
+						throw new IOException("sent back the wrong chunk");
+					}
+					result = new byte[in.readInt()];
+					in.readFully(result);
+				} catch (final IOException e) {
+					putBack(chunk);
+					throw e;
+				} finally {
+					timeout.cancel(false);
+				}
+				finish(chunk, last - first, result);
+			}
+
+			out.writeInt(-1);
+			out.flush();
+			p.waitFor();
+		}
+	}
+}
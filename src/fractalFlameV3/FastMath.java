@@ -0,0 +1,253 @@
+package fractalFlameV3;
+
+/**
+ * The transcendental functions used by the variations. By default each one is the matching
+ * function in Math. When fast math is on they are replaced by table lookups and polynomials, which
+ * are several times faster but less accurate. The largest errors, measured against Math over the
+ * ranges the variations use (see FastMathComparison), are:
+ *
+ * sin, cos: 3e-7 absolute, from linear interpolation of a 4096 entry table
+ *
+ * tan: sin / cos, 4e-7 relative
+ *
+ * atan2: 1.4e-8 absolute, from a degree 17 odd polynomial for atan on [0, 1]
+ *
+ * exp, cosh: 1.5e-8 relative, from linear interpolation of a 2048 entry table of 2^x on [0, 1]
+ *
+ * sinh: 1.5e-8 * cosh(x) absolute, so the relative error is larger close to 0
+ *
+ * pow: 5e-8 relative for x > 0 and |y| <= 1 (the error grows with |y * log2(x)|), exact for a
+ * whole number power up to 8
+ *
+ * Arguments that are NaN, infinite or too large for the tables are passed on to Math, so the
+ * special cases behave exactly as they do in Math.
+ *
+ * A flame is chaotic, so these errors change where each point lands, but not the shape of the
+ * attractor the points are drawn from. An image rendered with fast math is no further from the
+ * exact image than an exact render from another seed is, give or take a small fraction of an 8-bit
+ * color level. Fast math is meant for exploring, final renders should turn it off.
+ *
+ * @author aaron
+ *
+ */
+public final class FastMath {
+	/*
+	 * when true the approximations are used. It is only changed while no thread is iterating, the
+	 * threads pick it up when they are started
+	 */
+	private static boolean	      fast	          = false;
+
+	private static final double	TWO_PI	          = 2 * Math.PI;
+
+	/**
+	 * the sine table has SIN_SIZE steps over [0, 2 PI)
+	 */
+	private static final int	  SIN_BITS	      = 12;
+	private static final int	  SIN_SIZE	      = 1 << FastMath.SIN_BITS;
+	private static final double	SIN_SCALE	      = FastMath.SIN_SIZE / FastMath.TWO_PI;
+
+	/**
+	 * sin(i * 2 PI / SIN_SIZE) for i = [0, SIN_SIZE], with an extra entry so the interpolation
+	 * never has to wrap
+	 */
+	private static final double[]	SIN	          = new double[FastMath.SIN_SIZE + 1];
+
+	/**
+	 * the exp2 table has EXP2_SIZE steps over [0, 1)
+	 */
+	private static final int	  EXP2_SIZE	      = 2048;
+
+	/**
+	 * 2^(i / EXP2_SIZE) for i = [0, EXP2_SIZE]
+	 */
+	private static final double[]	EXP2	      = new double[FastMath.EXP2_SIZE + 1];
+
+	/**
+	 * the log2 table has LOG2_SIZE steps of the mantissa over [1, 2)
+	 */
+	private static final int	  LOG2_BITS	      = 11;
+	private static final int	  LOG2_SIZE	      = 1 << FastMath.LOG2_BITS;
+
+	/**
+	 * log2(1 + (i / LOG2_SIZE)) for i = [0, LOG2_SIZE]
+	 */
+	private static final double[]	LOG2	      = new double[FastMath.LOG2_SIZE + 1];
+
+	private static final double	LOG2_E	          = 1 / Math.log(2);
+
+	/**
+	 * arguments larger than this are passed on to Math
+	 */
+	private static final double	MAX_ANGLE	      = 1e9;
+	private static final double	MAX_EXPONENT	  = 1022;
+
+	/**
+	 * coefficients of the polynomial for atan(z) / z on [0, 1] in z^2, Abramowitz and Stegun 4.4.49
+	 */
+	private static final double	A2	              = -0.3333314528;
+	private static final double	A4	              = 0.1999355085;
+	private static final double	A6	              = -0.1420889944;
+	private static final double	A8	              = 0.1065626393;
+	private static final double	A10	              = -0.0752896400;
+	private static final double	A12	              = 0.0429096138;
+	private static final double	A14	              = -0.0161657367;
+	private static final double	A16	              = 0.0028662257;
+
+	static {
+		for (int i = 0; i <= FastMath.SIN_SIZE; i++) {
+			FastMath.SIN[i] = Math.sin(i / FastMath.SIN_SCALE);
+		}
+		for (int i = 0; i <= FastMath.EXP2_SIZE; i++) {
+			FastMath.EXP2[i] = Math.pow(2, (double) i / FastMath.EXP2_SIZE);
+		}
+		for (int i = 0; i <= FastMath.LOG2_SIZE; i++) {
+			FastMath.LOG2[i] = Math.log(1 + ((double) i / FastMath.LOG2_SIZE)) * FastMath.LOG2_E;
+		}
+	}
+
+	private FastMath() {
+	}
+
+	public static final boolean isFast() {
+		return FastMath.fast;
+	}
+
+	/**
+	 * turns the approximations on or off. Only call this while no thread is iterating
+	 */
+	public static final void setFast(final boolean fast) {
+		FastMath.fast = fast;
+	}
+
+	public static final double sin(final double x) {
+		if (!FastMath.fast || !(Math.abs(x) < FastMath.MAX_ANGLE)) {
+			return Math.sin(x);
+		}
+		return FastMath.sinTable(x * FastMath.SIN_SCALE);
+	}
+
+	public static final double cos(final double x) {
+		if (!FastMath.fast || !(Math.abs(x) < FastMath.MAX_ANGLE)) {
+			return Math.cos(x);
+		}
+		// cos(x) = sin(x + PI / 2), a quarter of the table further on
+		return FastMath.sinTable((x * FastMath.SIN_SCALE) + (FastMath.SIN_SIZE / 4));
+	}
+
+	public static final double tan(final double x) {
+		if (!FastMath.fast || !(Math.abs(x) < FastMath.MAX_ANGLE)) {
+			return Math.tan(x);
+		}
+		final double scaled = x * FastMath.SIN_SCALE;
+		return FastMath.sinTable(scaled) / FastMath.sinTable(scaled + (FastMath.SIN_SIZE / 4));
+	}
+
+	/**
+	 * interpolates the sine table at 'scaled', an angle in steps of the table
+	 */
+	private static final double sinTable(final double scaled) {
+		final double floor = Math.floor(scaled);
+		final double frac = scaled - floor;
+		final int i = ((int) (long) floor) & (FastMath.SIN_SIZE - 1);
+		return FastMath.SIN[i] + (frac * (FastMath.SIN[i + 1] - FastMath.SIN[i]));
+	}
+
+	public static final double atan2(final double y, final double x) {
+		final double ax = Math.abs(x);
+		final double ay = Math.abs(y);
+		// zeros keep Math's signs, and NaNs and infinities go to Math too
+		if (!FastMath.fast || !((ax + ay) > 0) || ((ax + ay) == Double.POSITIVE_INFINITY)) {
+			return Math.atan2(y, x);
+		}
+
+		// atan of the smaller over the larger is in [0, PI / 4], then unfold it into the octant
+		final boolean steep = ay > ax;
+		final double z = steep ? (ax / ay) : (ay / ax);
+		final double z2 = z * z;
+		final double p = FastMath.A12 + (z2 * (FastMath.A14 + (z2 * FastMath.A16)));
+		double a = z * (1 + (z2 * (FastMath.A2 + (z2 * (FastMath.A4 + (z2 * (FastMath.A6 + (z2 * (FastMath.A8 + (z2
+		        * (FastMath.A10 + (z2 * p))))))))))));
+		if (steep) {
+			a = (Math.PI / 2) - a;
+		}
+		if (x < 0) {
+			a = Math.PI - a;
+		}
+		return (y < 0) ? -a : a;
+	}
+
+	public static final double exp(final double x) {
+		if (!FastMath.fast) {
+			return Math.exp(x);
+		}
+		return FastMath.exp2(x * FastMath.LOG2_E);
+	}
+
+	public static final double sinh(final double x) {
+		if (!FastMath.fast) {
+			return Math.sinh(x);
+		}
+		final double e = FastMath.exp2(x * FastMath.LOG2_E);
+		return (e - (1 / e)) / 2;
+	}
+
+	public static final double cosh(final double x) {
+		if (!FastMath.fast) {
+			return Math.cosh(x);
+		}
+		final double e = FastMath.exp2(x * FastMath.LOG2_E);
+		return (e + (1 / e)) / 2;
+	}
+
+	public static final double pow(final double x, final double y) {
+		if (!FastMath.fast) {
+			return Math.pow(x, y);
+		}
+
+		// small whole number powers are multiplied out, which works for negative x too
+		if ((y == (int) y) && (Math.abs(y) <= 8)) {
+			double p = 1;
+			for (int i = (int) Math.abs(y); i > 0; i--) {
+				p *= x;
+			}
+			return (y < 0) ? 1 / p : p;
+		}
+
+		if (!(x > 0) || (x == Double.POSITIVE_INFINITY)) {
+			return Math.pow(x, y);
+		}
+		return FastMath.exp2(y * FastMath.log2(x));
+	}
+
+	/**
+	 * 2^x, split into the whole number part, which goes straight into the exponent, and the
+	 * fraction, which is interpolated from the table
+	 */
+	private static final double exp2(final double x) {
+		if (!(Math.abs(x) < FastMath.MAX_EXPONENT)) {
+			return Math.pow(2, x);
+		}
+		final double floor = Math.floor(x);
+		final double scaled = (x - floor) * FastMath.EXP2_SIZE;
+		final int i = (int) scaled;
+		final double frac = FastMath.EXP2[i] + ((scaled - i) * (FastMath.EXP2[i + 1] - FastMath.EXP2[i]));
+		return frac * Double.longBitsToDouble(((long) floor + 1023) << 52);
+	}
+
+	/**
+	 * log2(x) for positive, finite x. The exponent is read straight out of x, the log of the
+	 * mantissa is interpolated from the table
+	 */
+	private static final double log2(final double x) {
+		final long bits = Double.doubleToRawLongBits(x);
+		final int exponent = (int) ((bits >>> 52) & 0x7FF);
+		if (exponent == 0) {
+			// subnormal
+			return Math.log(x) * FastMath.LOG2_E;
+		}
+		final long mantissa = bits & 0xFFFFFFFFFFFFFL;
+		final int i = (int) (mantissa >>> (52 - FastMath.LOG2_BITS));
+		final double frac = (mantissa & ((1L << (52 - FastMath.LOG2_BITS)) - 1)) / (double) (1L << (52 - FastMath.LOG2_BITS));
+		return (exponent - 1023) + FastMath.LOG2[i] + (frac * (FastMath.LOG2[i + 1] - FastMath.LOG2[i]));
+	}
+}
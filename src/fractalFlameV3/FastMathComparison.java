@@ -0,0 +1,201 @@
+package fractalFlameV3;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.gson.Gson;
+
+import fractalFlameV3.fractalGenome.FractalGenome;
+
+/**
+ * Checks the accuracy of FastMath. First each approximation is compared against Math over the
+ * ranges the variations use, then a genome is rendered with and without fast math and the
+ * tone mapped images are compared. Because the chaos game is chaotic the two renders can't match
+ * pixel for pixel, so each image is the average of renders from several seeds, which shrinks the
+ * noise while any bias fast math has stays put, and the fast image is measured against the
+ * difference between two exact images from different seeds.
+ *
+ * Only the pixels lit in one of the images are compared, as the empty background would otherwise
+ * water the error down. The mean, 99th percentile and largest error of their channels are
+ * reported, and fast math is accurate enough when it adds less than MEAN_LIMIT levels to the mean
+ * error of the noise and less than P99_LIMIT levels to its 99th percentile.
+ *
+ * usage: FastMathComparison [genome file] [width] [height] [samples] [seeds]
+ *
+ * @author aaron
+ *
+ */
+public final class FastMathComparison {
+	/**
+	 * the most 8-bit levels fast math may add to the mean error of the lit pixels
+	 */
+	private static final double	MEAN_LIMIT	= 0.5;
+
+	/**
+	 * the most 8-bit levels fast math may add to the 99th percentile error of the lit pixels
+	 */
+	private static final double	P99_LIMIT	= 2;
+
+	public static void main(final String[] args) throws FileNotFoundException {
+		final String genomeFile = (args.length > 0) ? args[0] : "images/last.fractalgenome";
+		final int swid = (args.length > 1) ? Integer.parseInt(args[1]) : 640;
+		final int shei = (args.length > 2) ? Integer.parseInt(args[2]) : 360;
+		final long samples = (args.length > 3) ? Long.parseLong(args[3]) : 10000000;
+		final int seeds = (args.length > 4) ? Integer.parseInt(args[4]) : 4;
+
+		final Random r = new Random(0);
+		System.out.println("# function\tmax abs error\tmax rel error");
+		final double[] x = new double[1000000];
+		final double[] y = new double[x.length];
+
+		FastMathComparison.fill(x, r, -100, 100);
+		FastMathComparison.compare("sin", x, null);
+		FastMathComparison.compare("cos", x, null);
+		FastMathComparison.fill(x, r, -1.5, 1.5);
+		FastMathComparison.compare("tan", x, null);
+		FastMathComparison.fill(x, r, -10, 10);
+		FastMathComparison.fill(y, r, -10, 10);
+		FastMathComparison.compare("atan2", y, x);
+		FastMathComparison.fill(x, r, -20, 20);
+		FastMathComparison.compare("exp", x, null);
+		FastMathComparison.compare("sinh", x, null);
+		FastMathComparison.compare("cosh", x, null);
+		FastMathComparison.fill(x, r, 0, 10);
+		FastMathComparison.fill(y, r, -1, 1);
+		FastMathComparison.compare("pow", x, y);
+
+		final FractalGenome genome = new Gson().fromJson(new FileReader(genomeFile), FractalGenome.class);
+		final boolean wasFast = FastMath.isFast();
+
+		FastMath.setFast(false);
+		final double[] exact = FastMathComparison.render(genome, swid, shei, samples, 0, seeds);
+		final double[] reseeded = FastMathComparison.render(genome, swid, shei, samples, seeds, seeds);
+		FastMath.setFast(true);
+		final double[] fast = FastMathComparison.render(genome, swid, shei, samples, 2 * seeds, seeds);
+		FastMath.setFast(wasFast);
+
+		final boolean[] lit = new boolean[swid * shei];
+		int litPixels = 0;
+		for (int p = 0; p < lit.length; p++) {
+			for (int c = 0; c < 3; c++) {
+				lit[p] |= (exact[(3 * p) + c] > 0) || (reseeded[(3 * p) + c] > 0) || (fast[(3 * p) + c] > 0);
+			}
+			litPixels += lit[p] ? 1 : 0;
+		}
+
+		System.out.println("# " + litPixels + " lit pixels, each image is the average of " + seeds + " seeds");
+		System.out.println("# image\t\t\tmean error\t99th pct\tmax error");
+		final double[] noise = FastMathComparison.compare("exact, new seeds", exact, reseeded, lit);
+		final double[] error = FastMathComparison.compare("fast", exact, fast, lit);
+		final double meanExcess = error[0] - noise[0];
+		final double p99Excess = error[1] - noise[1];
+		final boolean pass = (meanExcess < MEAN_LIMIT) && (p99Excess < P99_LIMIT);
+		System.out.println("# fast math adds " + meanExcess + " levels to the mean error and " + p99Excess
+		        + " to the 99th percentile, " + (pass ? "under" : "OVER") + " the limits of " + MEAN_LIMIT
+		        + " and " + P99_LIMIT);
+	}
+
+	private static final void fill(final double[] a, final Random r, final double min, final double max) {
+		for (int i = 0; i < a.length; i++) {
+			a[i] = min + (r.nextDouble() * (max - min));
+		}
+	}
+
+	/**
+	 * prints the largest absolute and relative errors of the approximation of f over the arguments
+	 * x (and y, for functions of two arguments)
+	 */
+	private static final void compare(final String f, final double[] x, final double[] y) {
+		double maxAbs = 0;
+		double maxRel = 0;
+		for (int i = 0; i < x.length; i++) {
+			FastMath.setFast(false);
+			final double exact = FastMathComparison.call(f, x[i], (y == null) ? 0 : y[i]);
+			FastMath.setFast(true);
+			final double fast = FastMathComparison.call(f, x[i], (y == null) ? 0 : y[i]);
+
+			final double error = Math.abs(fast - exact);
+			maxAbs = Utils.max(maxAbs, error);
+			if (exact != 0) {
+				maxRel = Utils.max(maxRel, error / Math.abs(exact));
+			}
+		}
+		FastMath.setFast(false);
+		System.out.println("# " + f + "\t\t" + maxAbs + "\t" + maxRel);
+	}
+
+	private static final double call(final String f, final double x, final double y) {
+		switch (f) {
+		case "sin":
+			return FastMath.sin(x);
+		case "cos":
+			return FastMath.cos(x);
+		case "tan":
+			return FastMath.tan(x);
+		case "atan2":
+			return FastMath.atan2(x, y);
+		case "exp":
+			return FastMath.exp(x);
+		case "sinh":
+			return FastMath.sinh(x);
+		case "cosh":
+			return FastMath.cosh(x);
+		case "pow":
+			return FastMath.pow(x, y);
+		default:
+			throw new IllegalArgumentException(f);
+		}
+	}
+
+	/**
+	 * renders genome from the seeds [firstSeed, firstSeed + seeds) and returns the average of the
+	 * tone mapped images, as the r, g and b levels of each pixel in turn
+	 */
+	private static final double[] render(final FractalGenome genome, final int swid, final int shei,
+	        final long samples, final long firstSeed, final int seeds) {
+		final double[] image = new double[3 * swid * shei];
+		final int[] pixels = new int[swid * shei];
+		for (long seed = firstSeed; seed < (firstSeed + seeds); seed++) {
+			final Histogram h = new Histogram(swid, shei, 1);
+			h.setCamera(genome);
+			AccumulatorComparison.iterate(genome, new Histogram[] { h }, samples, new BlockRandom(seed));
+			h.updatePixels(pixels, genome);
+			for (int p = 0; p < pixels.length; p++) {
+				image[(3 * p) + 0] += (double) ((pixels[p] >> 16) & 0xFF) / seeds;
+				image[(3 * p) + 1] += (double) ((pixels[p] >> 8) & 0xFF) / seeds;
+				image[(3 * p) + 2] += (double) (pixels[p] & 0xFF) / seeds;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * prints and returns the mean, 99th percentile and largest difference of the channels of the
+	 * lit pixels of the two images, in 8-bit levels
+	 */
+	private static final double[] compare(final String name, final double[] reference, final double[] image,
+	        final boolean[] lit) {
+		final double[] errors = new double[reference.length];
+		int n = 0;
+		double totalError = 0;
+		for (int p = 0; p < lit.length; p++) {
+			if (lit[p]) {
+				for (int c = 0; c < 3; c++) {
+					final double error = Math.abs(reference[(3 * p) + c] - image[(3 * p) + c]);
+					totalError += error;
+					errors[n++] = error;
+				}
+			}
+		}
+		if (n == 0) {
+			System.out.println("# " + name + "\t\tnothing is lit");
+			return new double[3];
+		}
+		Arrays.sort(errors, 0, n);
+		final double[] stats = { totalError / n, errors[(int) (0.99 * (n - 1))], errors[n - 1] };
+		System.out.println("# " + name + "\t\t" + stats[0] + "\t" + stats[1] + "\t" + stats[2]);
+		return stats;
+	}
+}
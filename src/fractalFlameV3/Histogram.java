@@ -1,8 +1,59 @@
 package fractalFlameV3;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import fractalFlameV3.accumulator.Accumulator;
+import fractalFlameV3.accumulator.AccumulatorType;
 import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
 
 public final class Histogram {
+	/**
+	 * pool that downsamples and tone maps the histogram in parallel, shared by every histogram
+	 */
+	private static final ForkJoinPool	pool	  = new ForkJoinPool();
+
+	/**
+	 * the screen is split into square tiles this many pixels wide, a tile is only downsampled again
+	 * if a sample has landed in it since it was last downsampled
+	 */
+	public static final int	          TILE_PIXELS	= 32;
+
+	/**
+	 * updateChangedPixels keeps tone mapping with the same maxA until the log of the real maxA has
+	 * grown by more than this fraction, then it tone maps the whole screen again
+	 */
+	private static final double	      MAX_A_DRIFT	= 0.01;
+
+	/**
+	 * first int of a histogram written by write(), "FFH1"
+	 */
+	private static final int	      FILE_MAGIC	= 0x46464831;
+
+	/**
+	 * cells read() merges at a time
+	 */
+	private static final int	      READ_BATCH	= 1 << 14;
+
 	/**
 	 * width of screen
 	 */
@@ -34,23 +85,146 @@ public final class Histogram {
 	private final int	   ssSquared;
 
 	/**
-	 * flat array that holds the histogram, addressed using the formula: point(x, y, color) = (4 *
-	 * (x + (y * hwid))) + (color) where x = [0, hwid), y = [0, hhei - 1), color = [0, 3]
+	 * holds the cells of the histogram, addressed using the formula: index(x, y) = x + (y * hwid)
+	 * where x = [0, hwid), y = [0, hhei - 1)
 	 */
-	private final double[]	h;
+	private final Accumulator	h;
 
 	/**
-	 * temporary array used to calculate the final image
+	 * the histogram downsampled to the size of the screen, addressed using the formula:
+	 * image(ix, iy, channel) = (5 * (ix + (iy * swid))) + channel where the channels are the
+	 * summed r, g, b and count of the pixel's cells, and the number of its cells that have a color
 	 */
 	private final double[]	image;
 
-	private double	       cameraXOffset	= 0;
-	private double	       cameraYOffset	= 0;
-	private double	       cameraXShrink	= 10;
-	private double	       cameraYShrink	= 10;
+	/**
+	 * number of screen tiles across and down the screen
+	 */
+	private final int	   tilesX;
+	private final int	   tilesY;
+
+	/**
+	 * width of a screen tile in histogram cells (ss * TILE_PIXELS)
+	 */
+	private final int	   tileCells;
+
+	/**
+	 * dirty.get(tx + (ty * tilesX)) is 1 if a sample has landed in the screen tile (tx, ty) since it
+	 * was last downsampled
+	 */
+	private final AtomicIntegerArray	dirty;
+
+	/**
+	 * stale[t] is true if the screen tile t has been downsampled since updateChangedPixels last
+	 * tone mapped it
+	 */
+	private final boolean[]	stale;
+
+	/**
+	 * the tone mapped density, ToneMap.level(), of each screen pixel in the last frame
+	 * updateChangedPixels tone mapped. The colors of the cells never settle, as they're a running
+	 * average of the last few hits, so it's the density that's compared from frame to frame
+	 */
+	private final byte[]	levels;
+
+	/**
+	 * tileChange[t] is the mean difference of the tone mapped density of the pixels of the screen
+	 * tile t between the last frame updateChangedPixels tone mapped and the one before it, 0 if it
+	 * wasn't tone mapped
+	 */
+	private final double[]	tileChange;
+
+	/**
+	 * number of screen pixels with a non zero count, counted while downsampling
+	 */
+	private final AtomicInteger	litPixels	 = new AtomicInteger();
+
+	/**
+	 * samples that landed outside of the histogram since it was last reset, a Checkpoint saves and
+	 * restores it
+	 */
+	final AtomicLong	   misses	     = new AtomicLong();
+
+	/**
+	 * the stats of the last frame updateChangedPixels tone mapped, null if there hasn't been one
+	 * since the histogram was last reset
+	 */
+	private volatile QualityStats	stats	 = null;
+
+	/**
+	 * number of frames updateChangedPixels has tone mapped
+	 */
+	private long	       frames	     = 0;
+
+	/**
+	 * log of the maxA that updateChangedPixels last tone mapped the whole screen with, NaN if it
+	 * hasn't yet
+	 */
+	private volatile double	toneMappedLogMaxA	= Double.NaN;
+
+	/**
+	 * density estimation filter that image[] is run through before it is tone mapped, or null to
+	 * tone map image[] as it is
+	 */
+	private volatile DensityEstimationFilter	filter	= null;
+
+	/**
+	 * image[] after it has been through the filter, laid out the same way. Only allocated once a
+	 * filter is set
+	 */
+	private double[]	   filtered;
+
+	/**
+	 * summed area table of the counts in image[], used by the filter
+	 */
+	private double[]	   sat;
+
+	/**
+	 * lookup tables that turn the downsampled histogram into colors
+	 */
+	private final ToneMap	toneMap	     = new ToneMap();
+
+	/**
+	 * maps points to cells. It's replaced rather than changed, so a thread hitting the histogram
+	 * never sees half of a camera move
+	 */
+	private volatile Camera	camera;
+
+	/**
+	 * incremented by every reset(). Each HistogramBuffer is stamped with the epoch it was filled
+	 * for, and a buffer filled before the last reset is thrown away instead of merged
+	 */
+	private volatile int	epoch	     = 0;
+
+	/**
+	 * merges hold the read lock and reset() holds the write lock, so a reset can't land in the
+	 * middle of a merge
+	 */
+	private final ReentrantReadWriteLock	resetLock	= new ReentrantReadWriteLock();
 
 	private final double	gamma	     = 1;
 
+	/**
+	 * when true FractalThreads hit a private HistogramBuffer which is merged into the histogram
+	 * periodically, instead of synchronizing on the histogram for every sample
+	 */
+	private boolean	       buffered	     = true;
+
+	/**
+	 * number of HistogramBuffers merged into the histogram, and the total time spent merging them
+	 */
+	private final AtomicLong	merges	     = new AtomicLong();
+	private final AtomicLong	mergeNanos	 = new AtomicLong();
+
+	/**
+	 * null unless the histogram tracks its cells, see trackCells(). Otherwise every cell merged
+	 * into since the last reset is set in tracked and listed once in trackedCells. Guarded by
+	 * tracked
+	 */
+	private BitSet	       tracked	     = null;
+	private int[]	       trackedCells;
+	private int	           trackedCount;
+
 	/**
 	 * @param swid
 	 *            width of screen
@@ -60,6 +234,20 @@ public final class Histogram {
 	 *            samples per pixel
 	 */
 	public Histogram(final int swid, final int shei, final int ss) {
+		this(swid, shei, ss, AccumulatorType.SYNCHRONIZED);
+	}
+
+	/**
+	 * @param swid
+	 *            width of screen
+	 * @param shei
+	 *            height of screen
+	 * @param ss
+	 *            samples per pixel
+	 * @param type
+	 *            kind of accumulator that stores the histogram
+	 */
+	public Histogram(final int swid, final int shei, final int ss, final AccumulatorType type) {
 
 		this.swid = swid;
 		this.shei = shei;
@@ -69,110 +257,849 @@ public final class Histogram {
 		hwid = swid * ss;
 		hhei = shei * ss;
 
-		h = new double[hwid * hhei * 4];
+		h = type.create(hwid, hhei);
 		image = new double[swid * shei * 5];
+
+		tilesX = (swid + TILE_PIXELS - 1) / TILE_PIXELS;
+		tilesY = (shei + TILE_PIXELS - 1) / TILE_PIXELS;
+		tileCells = ss * TILE_PIXELS;
+		dirty = new AtomicIntegerArray(tilesX * tilesY);
+		stale = new boolean[tilesX * tilesY];
+		tileChange = new double[tilesX * tilesY];
+		levels = new byte[swid * shei];
+		markAllDirty();
+		setCamera(0, 0, 10, 10);
 	}
 
+	/**
+	 * points the histogram's camera at the genome's camera
+	 */
+	public final void setCamera(final FractalGenome genome) {
+		setCamera(genome.cameraXOffset, genome.cameraYOffset, genome.cameraXShrink, genome.cameraYShrink);
+	}
+
+	/**
+	 * points the histogram's camera at the snapshot's camera
+	 */
+	public final void setCamera(final GenomeSnapshot genome) {
+		setCamera(genome.cameraXOffset, genome.cameraYOffset, genome.cameraXShrink, genome.cameraYShrink);
+	}
+
+	private final void setCamera(final double xOffset, final double yOffset, final double xShrink,
+	        final double yShrink) {
+		final Camera c = camera;
+		if ((c == null) || (c.xOffset != xOffset) || (c.yOffset != yOffset) || (c.xShrink != xShrink)
+		        || (c.yShrink != yShrink)) {
+			camera = new Camera(xOffset, yOffset, xShrink, yShrink, hwid, hhei);
+		}
+	}
+
+	/**
+	 * tone maps the whole histogram into pixels
+	 */
 	public final void updatePixels(final int[] pixels, final FractalGenome genome) {
-		cameraXOffset = genome.cameraXOffset;
-		cameraYOffset = genome.cameraYOffset;
-		cameraXShrink = genome.cameraXShrink;
-		cameraYShrink = genome.cameraYShrink;
+		setCamera(genome);
+
+		litPixels.set(0);
+		final double maxA = Histogram.pool.invoke(new DownsampleTask(0, tilesY));
+
+		final double logMaxA = Math.log(maxA);
+
+		final DensityEstimationFilter filter = this.filter;
+		if (filter != null) {
+			filter.prepare(image, sat, swid, shei);
+			Histogram.pool.invoke(new FilterTask(filter, true, 0, tilesY));
+		}
+
+		toneMap.prepare(logMaxA, FractalGenome.gamma, FractalGenome.brightness, FractalGenome.vibrancy);
+		Histogram.pool.invoke(new ToneMapTask(pixels, filter != null, true, null, 0, tilesY));
+	}
+
+	/**
+	 * tone maps only the screen tiles that have changed since the last call into pixels, which must
+	 * still hold the frame from the last call. The whole screen is tone mapped on the first call,
+	 * and whenever maxA or the tone mapping parameters have changed too much to leave the other tiles
+	 * as they are. Each call measures the QualityStats returned by getStats().
+	 *
+	 * @param changed
+	 *            changed[tx + (ty * getTilesX())] is set to true for every tile that was tone mapped
+	 * @return the number of tiles that were tone mapped
+	 */
+	public final int updateChangedPixels(final int[] pixels, final FractalGenome genome, final boolean[] changed) {
+		setCamera(genome);
+
+		final long samples = h.samples();
+		final long misses = this.misses.get();
+		litPixels.set(0);
+		final double maxA = Histogram.pool.invoke(new DownsampleTask(0, tilesY));
+
+		final double logMaxA = Math.log(maxA);
+
+		// before anything has been merged maxA is 0 and its log is -Infinity, which nothing can
+		// drift from, so a value that isn't finite always counts as drifted
+		final boolean drifted = Double.isNaN(toneMappedLogMaxA) || Double.isInfinite(toneMappedLogMaxA)
+		        || (Math.abs(logMaxA - toneMappedLogMaxA) > (MAX_A_DRIFT * Math.abs(toneMappedLogMaxA)));
+		if (drifted) {
+			toneMappedLogMaxA = logMaxA;
+		}
+
+		// the tables only change when maxA has drifted or a parameter has changed, and either way
+		// every tile has to be tone mapped again
+		final boolean all = toneMap.prepare(toneMappedLogMaxA, FractalGenome.gamma, FractalGenome.brightness,
+		        FractalGenome.vibrancy) || drifted;
+
+		final DensityEstimationFilter filter = this.filter;
+		if (filter != null) {
+			if (!all) {
+				growStale(filter.getMaxRadius());
+			}
+			filter.prepare(image, sat, swid, shei);
+			Histogram.pool.invoke(new FilterTask(filter, all, 0, tilesY));
+		}
+
+		Histogram.pool.invoke(new ToneMapTask(pixels, filter != null, all, changed, 0, tilesY));
+
+		int nChanged = 0;
+		double change = 0;
+		double maxTileChange = 0;
+		for (int t = 0; t < changed.length; t++) {
+			nChanged += changed[t] ? 1 : 0;
+			change += tileChange[t] * tilePixels(t);
+			maxTileChange = Utils.max(maxTileChange, tileChange[t]);
+		}
+		stats = new QualityStats(++frames, samples, misses, litPixels.get(), swid * shei, change / (swid * shei),
+		        maxTileChange);
+		return nChanged;
+	}
+
+	/**
+	 * runs image[] through the filter before it's tone mapped, or tone maps it as it is if filter is
+	 * null. The whole screen is tone mapped again on the next update.
+	 */
+	public final synchronized void setDensityEstimation(final DensityEstimationFilter filter) {
+		if ((filter != null) && (filtered == null)) {
+			filtered = new double[image.length];
+			sat = new double[(swid + 1) * (shei + 1)];
+		}
+		this.filter = filter;
+		toneMappedLogMaxA = Double.NaN;
+	}
+
+	public final DensityEstimationFilter getDensityEstimation() {
+		return filter;
+	}
+
+	public final int getTilesX() {
+		return tilesX;
+	}
+
+	public final int getTilesY() {
+		return tilesY;
+	}
+
+	/**
+	 * the stats of the last frame updateChangedPixels tone mapped, or null if there hasn't been one
+	 * since the histogram was last reset
+	 */
+	public final QualityStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * number of screen pixels in the tile t, the tiles on the right and bottom edges can be cut
+	 * short
+	 */
+	private final int tilePixels(final int t) {
+		final int ixStart = (t % tilesX) * TILE_PIXELS;
+		final int iyStart = (t / tilesX) * TILE_PIXELS;
+		return (Utils.min(ixStart + TILE_PIXELS, swid) - ixStart) * (Utils.min(iyStart + TILE_PIXELS, shei) - iyStart);
+	}
+
+	/**
+	 * downsamples every dirty tile in the tile rows [tyStart, tyEnd), returning the largest summed
+	 * count in those rows
+	 */
+	private final double downsample(final int tyStart, final int tyEnd) {
+		for (int ty = tyStart; ty < tyEnd; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				final int t = tx + (ty * tilesX);
+				if (dirty.get(t) != 0) {
+					// cleared before the tile is read, so a sample landing while it's being read
+					// marks it dirty again
+					dirty.set(t, 0);
+					downsampleTile(tx, ty);
+					stale[t] = true;
+				}
+			}
+		}
 
-		final double gamma = FractalGenome.gamma;
 		double maxA = 0;
+		int lit = 0;
+		final int iEnd = 5 * swid * Utils.min(tyEnd * TILE_PIXELS, shei);
+		for (int ii = 5 * swid * tyStart * TILE_PIXELS; ii < iEnd; ii += 5) {
+			maxA = (maxA > image[ii + 3]) ? maxA : image[ii + 3];
+			lit += (image[ii + 3] != 0) ? 1 : 0;
+		}
+		litPixels.addAndGet(lit);
+		return maxA;
+	}
+
+	/**
+	 * sums every ss x ss block of the histogram in the screen tile (tx, ty) into image[]
+	 */
+	private final void downsampleTile(final int tx, final int ty) {
+		final int ixStart = tx * TILE_PIXELS;
+		final int iyStart = ty * TILE_PIXELS;
+		final int ixEnd = Utils.min(ixStart + TILE_PIXELS, swid);
+		final int iyEnd = Utils.min(iyStart + TILE_PIXELS, shei);
 
-		for (int hy = 0; hy < hhei; hy++) {
-			for (int hx = 0; hx < hwid; hx++) {
-				final int hi = 4 * (hx + (hy * hwid));
+		for (int iy = iyStart; iy < iyEnd; iy++) {
+			for (int ix = ixStart; ix < ixEnd; ix++) {
+				final int ii = 5 * (ix + (iy * swid));
+				image[ii + 0] = 0;
+				image[ii + 1] = 0;
+				image[ii + 2] = 0;
+				image[ii + 3] = 0;
+				image[ii + 4] = 0;
+			}
+		}
+
+		for (int hy = iyStart * ss; hy < (iyEnd * ss); hy++) {
+			for (int hx = ixStart * ss; hx < (ixEnd * ss); hx++) {
+				final int hi = hx + (hy * hwid);
 				final int ix = hx / ss;
 				final int iy = hy / ss;
 				final int ii = 5 * (ix + (iy * swid));
 
-				final double r = h[hi + 0];
-				final double g = h[hi + 1];
-				final double b = h[hi + 2];
-				final double a = h[hi + 3];
+				final double r = h.r(hi);
+				final double g = h.g(hi);
+				final double b = h.b(hi);
+				final double a = h.count(hi);
 
 				image[ii + 0] += r;
 				image[ii + 1] += g;
 				image[ii + 2] += b;
 				image[ii + 3] += a;
 				image[ii + 4] += (r != 0) ? 1 : 0;
+			}
+		}
+	}
+
+	/**
+	 * marks every tile within radius pixels of a stale tile as stale too, since the filtered pixels
+	 * of those tiles read from the stale tile
+	 */
+	private final void growStale(final int radius) {
+		final int reach = (radius + TILE_PIXELS - 1) / TILE_PIXELS;
+		if (reach == 0) {
+			return;
+		}
+
+		final boolean[] grown = new boolean[stale.length];
+		for (int ty = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				if (!stale[tx + (ty * tilesX)]) {
+					continue;
+				}
+				for (int ny = Utils.max(ty - reach, 0); ny <= Utils.min(ty + reach, tilesY - 1); ny++) {
+					for (int nx = Utils.max(tx - reach, 0); nx <= Utils.min(tx + reach, tilesX - 1); nx++) {
+						grown[nx + (ny * tilesX)] = true;
+					}
+				}
+			}
+		}
+		System.arraycopy(grown, 0, stale, 0, stale.length);
+	}
 
-				maxA = (maxA > image[ii + 3]) ? maxA : image[ii + 3];
+	/**
+	 * runs the filter over the tiles in the tile rows [tyStart, tyEnd) of image[], writing them into
+	 * filtered[]. Every tile is filtered if 'all' is true, otherwise only the stale ones are.
+	 */
+	private final void filter(final DensityEstimationFilter filter, final boolean all, final int tyStart,
+	        final int tyEnd) {
+		for (int ty = tyStart; ty < tyEnd; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				if (all || stale[tx + (ty * tilesX)]) {
+					final int ixStart = tx * TILE_PIXELS;
+					final int iyStart = ty * TILE_PIXELS;
+					filter.filter(image, filtered, sat, swid, shei, ssSquared, ixStart,
+					        Utils.min(ixStart + TILE_PIXELS, swid), iyStart, Utils.min(iyStart + TILE_PIXELS, shei));
+				}
 			}
 		}
+	}
+
+	/**
+	 * marks the screen tile that the histogram cell (hx, hy) falls in as dirty
+	 */
+	private final void touch(final int hx, final int hy) {
+		final int t = (hx / tileCells) + ((hy / tileCells) * tilesX);
+		// only write when the flag changes, so threads hitting the same tile share its cache line
+		if (dirty.get(t) == 0) {
+			dirty.set(t, 1);
+		}
+	}
+
+	private final void markAllDirty() {
+		for (int t = 0; t < dirty.length(); t++) {
+			dirty.set(t, 1);
+		}
+	}
+
+	/**
+	 * tone maps the tiles in the tile rows [tyStart, tyEnd) of image[], or of filtered[] if
+	 * 'useFiltered' is true, into pixels. Every tile is tone mapped if 'all' is true, otherwise only
+	 * the stale ones are. If changed isn't null, the tiles that are tone mapped are marked in it and
+	 * are no longer stale, and how much each tile's density changed is measured into tileChange.
+	 */
+	private final void toneMap(final int[] pixels, final boolean useFiltered, final boolean all,
+	        final boolean[] changed, final int tyStart, final int tyEnd) {
+		final double[] image = useFiltered ? filtered : this.image;
+		for (int ty = tyStart; ty < tyEnd; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				final int t = tx + (ty * tilesX);
+				if (all || stale[t]) {
+					final long difference = toneMapTile(image, pixels, tx, ty, changed != null);
+					if (changed != null) {
+						changed[t] = true;
+						stale[t] = false;
+						tileChange[t] = (double) difference / tilePixels(t);
+					}
+				} else if (changed != null) {
+					tileChange[t] = 0;
+				}
+			}
+		}
+	}
 
-		 final double logMaxA = Math.log(maxA);
+	/**
+	 * tone maps the screen tile (tx, ty) of image, which is laid out like image[], into pixels. If
+	 * 'measure' is true, the tone mapped density of each pixel is stored in levels[], and the summed
+	 * difference from what was there before is returned
+	 */
+	private final long toneMapTile(final double[] image, final int[] pixels, final int tx, final int ty,
+	        final boolean measure) {
+		final int ixStart = tx * TILE_PIXELS;
+		final int iyStart = ty * TILE_PIXELS;
+		final int ixEnd = Utils.min(ixStart + TILE_PIXELS, swid);
+		final int iyEnd = Utils.min(iyStart + TILE_PIXELS, shei);
 
-		for (int iy = 0; iy < shei; iy++) {
-			for (int ix = 0; ix < swid; ix++) {
+		long difference = 0;
+		for (int iy = iyStart; iy < iyEnd; iy++) {
+			for (int ix = ixStart; ix < ixEnd; ix++) {
 				final int pixels_index = (ix + (iy * swid));
 				final int index = 5 * pixels_index;
 				if (image[index + 4] != 0) {
 					final double rAvg = image[index + 0] / image[index + 4];
 					final double gAvg = image[index + 1] / image[index + 4];
 					final double bAvg = image[index + 2] / image[index + 4];
-					final double colorScaleFactor = Math.pow(Math.log(image[index + 3]) / logMaxA, 1.0 / gamma);
-
-					final int a = 0xFF;
-					final int r = ((int) ((rAvg * colorScaleFactor) * 0xFF));
-					final int g = ((int) ((gAvg * colorScaleFactor) * 0xFF));
-					final int b = ((int) ((bAvg * colorScaleFactor) * 0xFF));
 
-					pixels[pixels_index] = (a << 24) | (r << 16) | (g << 8) | (b << 0);
+					pixels[pixels_index] = toneMap.color(rAvg, gAvg, bAvg, image[index + 3]);
 				} else {
 					pixels[pixels_index] = 0xFF000000;
 				}
-				image[index + 0] = 0;
-				image[index + 1] = 0;
-				image[index + 2] = 0;
-				image[index + 3] = 0;
-				image[index + 4] = 0;
+
+				if (measure) {
+					final int level = toneMap.level(image[index + 3]);
+					difference += Math.abs(level - (levels[pixels_index] & 0xFF));
+					levels[pixels_index] = (byte) level;
+				}
+			}
+		}
+		return difference;
+	}
+
+	/**
+	 * downsamples a band of tile rows, splitting it in half until it is a single row of tiles, and
+	 * reduces the largest summed count of the band
+	 */
+	private final class DownsampleTask extends RecursiveTask<Double> {
+		private static final long	serialVersionUID	= 1L;
+
+		private final int	      tyStart;
+		private final int	      tyEnd;
+
+		DownsampleTask(final int tyStart, final int tyEnd) {
+			this.tyStart = tyStart;
+			this.tyEnd = tyEnd;
+		}
+
+		@Override
+		protected Double compute() {
+			if ((tyEnd - tyStart) <= 1) {
+				return downsample(tyStart, tyEnd);
+			}
+			final int tyMid = (tyStart + tyEnd) >>> 1;
+			final DownsampleTask top = new DownsampleTask(tyStart, tyMid);
+			top.fork();
+			final double bottomMaxA = new DownsampleTask(tyMid, tyEnd).compute();
+			return Utils.max(top.join(), bottomMaxA);
+		}
+	}
+
+	/**
+	 * filters a band of tile rows, splitting it in half until it is a single row of tiles
+	 */
+	private final class FilterTask extends RecursiveAction {
+		private static final long	           serialVersionUID	= 1L;
+
+		private final DensityEstimationFilter	filter;
+		private final boolean	               all;
+		private final int	                   tyStart;
+		private final int	                   tyEnd;
+
+		FilterTask(final DensityEstimationFilter filter, final boolean all, final int tyStart, final int tyEnd) {
+			this.filter = filter;
+			this.all = all;
+			this.tyStart = tyStart;
+			this.tyEnd = tyEnd;
+		}
+
+		@Override
+		protected void compute() {
+			if ((tyEnd - tyStart) <= 1) {
+				filter(filter, all, tyStart, tyEnd);
+				return;
+			}
+			final int tyMid = (tyStart + tyEnd) >>> 1;
+			invokeAll(new FilterTask(filter, all, tyStart, tyMid), new FilterTask(filter, all, tyMid, tyEnd));
+		}
+	}
+
+	/**
+	 * tone maps a band of tile rows, splitting it in half until it is a single row of tiles
+	 */
+	private final class ToneMapTask extends RecursiveAction {
+		private static final long	serialVersionUID	= 1L;
+
+		private final int[]	      pixels;
+		private final boolean	  useFiltered;
+		private final boolean	  all;
+		private final boolean[]	  changed;
+		private final int	      tyStart;
+		private final int	      tyEnd;
+
+		ToneMapTask(final int[] pixels, final boolean useFiltered, final boolean all, final boolean[] changed,
+		        final int tyStart, final int tyEnd) {
+			this.pixels = pixels;
+			this.useFiltered = useFiltered;
+			this.all = all;
+			this.changed = changed;
+			this.tyStart = tyStart;
+			this.tyEnd = tyEnd;
+		}
+
+		@Override
+		protected void compute() {
+			if ((tyEnd - tyStart) <= 1) {
+				toneMap(pixels, useFiltered, all, changed, tyStart, tyEnd);
+				return;
+			}
+			final int tyMid = (tyStart + tyEnd) >>> 1;
+			invokeAll(new ToneMapTask(pixels, useFiltered, all, changed, tyStart, tyMid), new ToneMapTask(pixels,
+			        useFiltered, all, changed, tyMid, tyEnd));
+		}
+	}
+
+	public final boolean isBuffered() {
+		return buffered;
+	}
+
+	public final void setBuffered(final boolean buffered) {
+		this.buffered = buffered;
+	}
+
+	public final long getSamples() {
+		return h.samples();
+	}
+
+	public final long getMerges() {
+		return merges.get();
+	}
+
+	public final long getMergeNanos() {
+		return mergeNanos.get();
+	}
+
+	/**
+	 * the epoch the histogram is in, it changes every time the histogram is reset
+	 */
+	public final int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * keeps a list of the cells that are merged into from now on, so write() and reset() only
+	 * visit those cells rather than the whole histogram. Only merges are tracked, not hits that go
+	 * straight to the histogram, so it's for a histogram that's only ever merged into, like a
+	 * RenderWorker's. It must be called while the histogram is empty
+	 */
+	public final void trackCells() {
+		trackedCells = new int[1 << 16];
+		trackedCount = 0;
+		tracked = new BitSet(hwid * hhei);
+	}
+
+	/**
+	 * returns the index of the cell that the point (x, y) lands in, or -1 if it lands outside of
+	 * the histogram
+	 */
+	final int index(final double x, final double y) {
+		final Camera c = camera;
+		final int ix = (int) (((x + c.xOffset) * c.xScale) + (hwid / 2));
+		final int iy = (int) (((y + c.yOffset) * c.yScale) + (hhei / 2));
+
+		if ((ix >= 0) && (ix < hwid) && (iy >= 0) && (iy < hhei)) {
+			return ix + (iy * hwid);
+		}
+		return -1;
+	}
+
+	/**
+	 * merges the contents of a thread's buffer into the histogram, then empties the buffer. A
+	 * buffer that was filled for an earlier epoch is emptied without being merged.
+	 *
+	 * @param buffer
+	 *            buffer to merge
+	 */
+	final void merge(final HistogramBuffer buffer) {
+		final long start = System.nanoTime();
+
+		resetLock.readLock().lock();
+		try {
+			if (buffer.epoch == epoch) {
+				misses.addAndGet(buffer.misses);
+				if (buffer.size > 0) {
+					mergeCells(buffer.indices, buffer.cells, buffer.size);
+					merges.incrementAndGet();
+					mergeNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+		} finally {
+			resetLock.readLock().unlock();
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * merges a batch of cells, laid out as Accumulator.merge() takes them, and marks their tiles
+	 * dirty
+	 */
+	private final void mergeCells(final int[] indices, final double[] cells, final int n) {
+		h.merge(indices, cells, n);
+		for (int e = 0; e < n; e++) {
+			touch(indices[e] % hwid, indices[e] / hwid);
+		}
+		if (tracked != null) {
+			track(indices, n);
+		}
+	}
+
+	/**
+	 * adds the cells that aren't tracked yet to the list of tracked cells
+	 */
+	private final void track(final int[] indices, final int n) {
+		synchronized (tracked) {
+			for (int e = 0; e < n; e++) {
+				final int index = indices[e];
+				if (!tracked.get(index)) {
+					tracked.set(index);
+					if (trackedCount == trackedCells.length) {
+						trackedCells = Arrays.copyOf(trackedCells, 2 * trackedCount);
+					}
+					trackedCells[trackedCount++] = index;
+				}
+			}
+		}
+	}
+
+	/**
+	 * writes every cell that a sample has landed in to out. The histogram is written as big endian
+	 * ints and doubles: FILE_MAGIC, swid, shei and ss, then the index, r, g, b and count of each
+	 * cell that isn't empty in order, and finally an index of -1. out isn't closed. If the histogram
+	 * tracks its cells only the tracked cells are looked at
+	 */
+	public final void write(final OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		data.writeInt(FILE_MAGIC);
+		data.writeInt(swid);
+		data.writeInt(shei);
+		data.writeInt(ss);
+		if (tracked != null) {
+			synchronized (tracked) {
+				Arrays.sort(trackedCells, 0, trackedCount);
+				for (int e = 0; e < trackedCount; e++) {
+					writeCell(data, trackedCells[e]);
+				}
+			}
+		} else {
+			for (int i = 0; i < (hwid * hhei); i++) {
+				writeCell(data, i);
+			}
+		}
+		data.writeInt(-1);
+		data.flush();
+	}
+
+	private final void writeCell(final DataOutputStream data, final int i) throws IOException {
+		final double count = h.count(i);
+		if (count != 0) {
+			data.writeInt(i);
+			data.writeDouble(h.r(i));
+			data.writeDouble(h.g(i));
+			data.writeDouble(h.b(i));
+			data.writeDouble(count);
+		}
+	}
+
+	/**
+	 * merges a histogram that was written by write() into this one, which must be the same size. A
+	 * cell that's empty here gets exactly the cell that was written, so reading into an empty
+	 * histogram restores what was written. Nothing past the end of the histogram is read from in,
+	 * so it should be buffered
+	 */
+	public final void read(final InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != FILE_MAGIC) {
+			throw new IOException("not a histogram");
+		}
+		final int swid = data.readInt();
+		final int shei = data.readInt();
+		final int ss = data.readInt();
+		if ((swid != this.swid) || (shei != this.shei) || (ss != this.ss)) {
+			throw new IOException("histogram is " + swid + "x" + shei + " ss " + ss + ", not " + this.swid + "x"
+			        + this.shei + " ss " + this.ss);
+		}
+
+		final int[] indices = new int[READ_BATCH];
+		final double[] cells = new double[4 * READ_BATCH];
+		int n = 0;
+		int index;
+		while ((index = data.readInt()) >= 0) {
+			if (index >= (hwid * hhei)) {
+				throw new IOException("cell " + index + " is outside of the histogram");
+			}
+			indices[n] = index;
+			cells[(4 * n) + 0] = data.readDouble();
+			cells[(4 * n) + 1] = data.readDouble();
+			cells[(4 * n) + 2] = data.readDouble();
+			cells[(4 * n) + 3] = data.readDouble();
+			if (++n == READ_BATCH) {
+				mergeRead(indices, cells, n);
+				n = 0;
+			}
+		}
+		mergeRead(indices, cells, n);
+	}
+
+	/**
+	 * deflates the cells under the screen tile t, as the r, g, b and count doubles of each cell row
+	 * by row, or returns an empty array if no sample has landed in the tile
+	 */
+	final byte[] deflateTile(final int t, final Deflater deflater) {
+		final int xStart = (t % tilesX) * tileCells;
+		final int yStart = (t / tilesX) * tileCells;
+		final int xEnd = Utils.min(xStart + tileCells, hwid);
+		final int yEnd = Utils.min(yStart + tileCells, hhei);
+
+		final ByteBuffer cells = ByteBuffer.allocate((xEnd - xStart) * (yEnd - yStart) * 32);
+		boolean empty = true;
+		for (int y = yStart; y < yEnd; y++) {
+			for (int x = xStart; x < xEnd; x++) {
+				final int i = x + (y * hwid);
+				final double count = h.count(i);
+				empty &= (count == 0);
+				cells.putDouble(h.r(i));
+				cells.putDouble(h.g(i));
+				cells.putDouble(h.b(i));
+				cells.putDouble(count);
 			}
 		}
+		if (empty) {
+			return new byte[0];
+		}
+
+		deflater.reset();
+		deflater.setInput(cells.array());
+		deflater.finish();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] chunk = new byte[1 << 14];
+		while (!deflater.finished()) {
+			out.write(chunk, 0, deflater.deflate(chunk));
+		}
+		return out.toByteArray();
 	}
 
-	public final synchronized void hit(final Vec2D p, final double r, final double g, final double b) {
-		final int x = (int) (((p.x + cameraXOffset) * (hwid / cameraXShrink)) + (hwid / 2));
-		final int y = (int) (((p.y + cameraYOffset) * (hhei / cameraYShrink)) + (hhei / 2));
+	/**
+	 * merges a tile written by deflateTile() into the histogram, so inflating every tile into an
+	 * empty histogram restores the one that was deflated
+	 */
+	final void inflateTile(final int t, final byte[] data, final Inflater inflater) throws IOException {
+		if (data.length == 0) {
+			return;
+		}
+		final int xStart = (t % tilesX) * tileCells;
+		final int yStart = (t / tilesX) * tileCells;
+		final int xEnd = Utils.min(xStart + tileCells, hwid);
+		final int yEnd = Utils.min(yStart + tileCells, hhei);
 
-		this.hit(x, y, r, g, b);
+		final byte[] raw = new byte[(xEnd - xStart) * (yEnd - yStart) * 32];
+		inflater.reset();
+		inflater.setInput(data);
+		try {
+			int length = 0;
+			while (length < raw.length) {
+				final int n = inflater.inflate(raw, length, raw.length - length);
+				if ((n == 0) && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				length += n;
+			}
+			if (length < raw.length) {
+				throw new IOException("tile " + t + " is truncated");
+			}
+		} catch (final DataFormatException e) {
+			throw new IOException("tile " + t + " is corrupt", e);
+		}
+
+		final ByteBuffer in = ByteBuffer.wrap(raw);
+		final int[] indices = new int[(xEnd - xStart) * (yEnd - yStart)];
+		final double[] cells = new double[4 * indices.length];
+		int n = 0;
+		for (int y = yStart; y < yEnd; y++) {
+			for (int x = xStart; x < xEnd; x++) {
+				final double r = in.getDouble();
+				final double g = in.getDouble();
+				final double b = in.getDouble();
+				final double count = in.getDouble();
+				if (count != 0) {
+					indices[n] = x + (y * hwid);
+					cells[(4 * n) + 0] = r;
+					cells[(4 * n) + 1] = g;
+					cells[(4 * n) + 2] = b;
+					cells[(4 * n) + 3] = count;
+					n++;
+				}
+			}
+		}
+		mergeRead(indices, cells, n);
+	}
+
+	private final void mergeRead(final int[] indices, final double[] cells, final int n) {
+		resetLock.readLock().lock();
+		try {
+			mergeCells(indices, cells, n);
+		} finally {
+			resetLock.readLock().unlock();
+		}
+	}
 
+	public final void hit(final Vec2D p, final double r, final double g, final double b) {
+		this.hit(p.x, p.y, r, g, b);
 	}
 
-	public final synchronized void hit(final Vec2D p, final ColorSet c) {
+	public final void hit(final Vec2D p, final ColorSet c) {
 		this.hit(p.x, p.y, c.r, c.g, c.b);
 
 	}
 
-	public final synchronized void hit(final double x, final double y, final double r, final double g, final double b) {
-		final int ix = (int) (((x + cameraXOffset) * (hwid / cameraXShrink)) + (hwid / 2));
-		final int iy = (int) (((y + cameraYOffset) * (hhei / cameraYShrink)) + (hhei / 2));
+	public final void hit(final double x, final double y, final double r, final double g, final double b) {
+		final Camera c = camera;
+		final int ix = (int) (((x + c.xOffset) * c.xScale) + (hwid / 2));
+		final int iy = (int) (((y + c.yOffset) * c.yScale) + (hhei / 2));
 
 		this.hit(ix, iy, r, g, b);
 	}
 
-	private final synchronized void hit(final int x, final int y, final double r, final double g, final double b) {
+	private final void hit(final int x, final int y, final double r, final double g, final double b) {
 		if ((x >= 0) && (x < hwid) && (y >= 0) && (y < hhei)) {
-			final int index = 4 * (x + (y * hwid));
+			h.hit(x + (y * hwid), r, g, b);
+			touch(x, y);
+		} else {
+			misses.incrementAndGet();
+		}
+	}
 
-			h[index + 0] += r;
-			h[index + 1] += g;
-			h[index + 2] += b;
+	/**
+	 * returns a hash of every cell of the histogram, two histograms that hold exactly the same
+	 * cells have the same checksum
+	 */
+	public final long checksum() {
+		long checksum = 0;
+		for (int i = 0; i < (hwid * hhei); i++) {
+			if (h.count(i) != 0) {
+				checksum = BlockRandom.splitMix(checksum ^ i);
+				checksum = BlockRandom.splitMix(checksum ^ Double.doubleToLongBits(h.r(i)));
+				checksum = BlockRandom.splitMix(checksum ^ Double.doubleToLongBits(h.g(i)));
+				checksum = BlockRandom.splitMix(checksum ^ Double.doubleToLongBits(h.b(i)));
+				checksum = BlockRandom.splitMix(checksum ^ Double.doubleToLongBits(h.count(i)));
+			}
+		}
+		return checksum;
+	}
 
-			h[index + 0] /= 2.0;
-			h[index + 1] /= 2.0;
-			h[index + 2] /= 2.0;
+	/**
+	 * empties the histogram and starts a new epoch. Hits that go straight to the histogram rather
+	 * than through a HistogramBuffer aren't stamped, so one that lands during the reset can survive
+	 * it. If the histogram tracks its cells only the tracked cells are zeroed
+	 */
+	public void reset() {
+		resetLock.writeLock().lock();
+		try {
+			if (tracked != null) {
+				synchronized (tracked) {
+					h.clear(trackedCells, trackedCount);
+					for (int e = 0; e < trackedCount; e++) {
+						tracked.clear(trackedCells[e]);
+					}
+					trackedCount = 0;
+				}
+			} else {
+				h.reset();
+			}
+			misses.set(0);
+			epoch++;
+		} finally {
+			resetLock.writeLock().unlock();
+		}
+		markAllDirty();
+		toneMappedLogMaxA = Double.NaN;
+		stats = null;
+	}
 
-			h[index + 3]++;
+	/**
+	 * releases the accumulator, see Accumulator.close(). The histogram mustn't be used afterwards,
+	 * so nothing may be playing into it or tone mapping it
+	 */
+	public final void close() {
+		resetLock.writeLock().lock();
+		try {
+			h.close();
+		} finally {
+			resetLock.writeLock().unlock();
 		}
 	}
 
-	public void reset() {
-		for (int i = 0; i < h.length; i++) {
-			h[i] = 0;
+	/**
+	 * where the histogram is looking, and the scale from points to cells that goes with it
+	 */
+	private static final class Camera {
+		final double	xOffset, yOffset;
+		final double	xShrink, yShrink;
+
+		/**
+		 * cells per unit of x and y (hwid / xShrink and hhei / yShrink)
+		 */
+		final double	xScale, yScale;
+
+		Camera(final double xOffset, final double yOffset, final double xShrink, final double yShrink,
+		        final int hwid, final int hhei) {
+			this.xOffset = xOffset;
+			this.yOffset = yOffset;
+			this.xShrink = xShrink;
+			this.yShrink = yShrink;
+			xScale = hwid / xShrink;
+			yScale = hhei / yShrink;
 		}
 	}
 }
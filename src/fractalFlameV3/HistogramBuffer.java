@@ -0,0 +1,198 @@
+package fractalFlameV3;
+
+import java.util.Arrays;
+
+/**
+ * A private, per-thread hit buffer for a Histogram. Each FractalThread owns one buffer and hits it
+ * without any locking. Hits to the same histogram cell are combined locally, and every so often
+ * the buffer is merged into the shared histogram in a single batch, so the threads only contend
+ * once per flush instead of once per sample.
+ *
+ * The buffer is a small open addressing hash table keyed by histogram cell index, so it costs the
+ * same amount of memory no matter how much supersampling the histogram uses.
+ *
+ * A growing buffer never flushes itself, it doubles its table instead whenever it fills up. It
+ * holds every hit until flush() is called, which is how a work unit keeps its hits until it's
+ * its turn to be merged.
+ *
+ * @author aaron
+ *
+ */
+public final class HistogramBuffer {
+	/**
+	 * the hash table starts with (1 << CAPACITY_BITS) slots
+	 */
+	private static final int	CAPACITY_BITS	= 16;
+
+	/**
+	 * the buffer is flushed after this many hits even if it isn't full, so the preview keeps
+	 * updating while the attractor is concentrated in a few cells
+	 */
+	private static final int	MAX_HITS	= 1 << 18;
+
+	private final Histogram	 histogram;
+
+	/**
+	 * true if the buffer grows rather than flushing itself
+	 */
+	private final boolean	 growing;
+
+	/**
+	 * the hash table has (1 << capacityBits) slots
+	 */
+	private int	             capacityBits	= CAPACITY_BITS;
+
+	/**
+	 * the buffer is flushed, or grows, once this many distinct cells have been hit
+	 */
+	private int	             maxCells	 = HistogramBuffer.maxCells(CAPACITY_BITS);
+
+	/**
+	 * entry held in each slot of the hash table, or -1 if the slot is empty
+	 */
+	private int[]	         slots	     = new int[1 << CAPACITY_BITS];
+
+	/**
+	 * histogram cell index of each entry
+	 */
+	int[]	                 indices	 = new int[maxCells];
+
+	/**
+	 * the accumulated value of each entry, laid out the same way as the histogram: cells(entry,
+	 * color) = (4 * entry) + color
+	 */
+	double[]	             cells	     = new double[maxCells * 4];
+
+	/**
+	 * number of entries in use, entries are filled in order
+	 */
+	int	                     size	     = 0;
+
+	/**
+	 * number of hits since the last flush
+	 */
+	private int	             hits	     = 0;
+
+	/**
+	 * number of hits that fell outside of the histogram since the last flush
+	 */
+	int	                     misses	     = 0;
+
+	/**
+	 * the histogram epoch the hits in the buffer belong to, see Histogram.getEpoch()
+	 */
+	int	                     epoch;
+
+	public HistogramBuffer(final Histogram histogram) {
+		this(histogram, false);
+	}
+
+	/**
+	 * @param growing
+	 *            when true the buffer never flushes itself, it grows to hold every hit until
+	 *            flush() is called
+	 */
+	public HistogramBuffer(final Histogram histogram, final boolean growing) {
+		this.histogram = histogram;
+		this.growing = growing;
+		epoch = histogram.getEpoch();
+		Arrays.fill(slots, -1);
+	}
+
+	/**
+	 * stamps the hits from now on with the histogram epoch they belong to. If the histogram has
+	 * been reset since, they're thrown away instead of merged. Anything already in the buffer is
+	 * flushed first
+	 */
+	public final void setEpoch(final int epoch) {
+		if (epoch != this.epoch) {
+			flush();
+			this.epoch = epoch;
+		}
+	}
+
+	/**
+	 * number of distinct cells a table of (1 << capacityBits) slots holds before it's too full
+	 */
+	private static final int maxCells(final int capacityBits) {
+		return ((1 << capacityBits) / 4) * 3;
+	}
+
+	public final void hit(final Vec2D p, final ColorSet c) {
+		final int index = histogram.index(p.x, p.y);
+		if (index < 0) {
+			misses++;
+			return;
+		}
+
+		int slot = (index * 0x9E3779B9) >>> (32 - capacityBits);
+		while ((slots[slot] != -1) && (indices[slots[slot]] != index)) {
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		if (slots[slot] == -1) {
+			slots[slot] = size;
+			indices[size++] = index;
+		}
+
+		final int cell = 4 * slots[slot];
+		cells[cell + 0] += c.r;
+		cells[cell + 1] += c.g;
+		cells[cell + 2] += c.b;
+
+		cells[cell + 0] /= 2.0;
+		cells[cell + 1] /= 2.0;
+		cells[cell + 2] /= 2.0;
+
+		cells[cell + 3]++;
+
+		if (growing) {
+			if (size == maxCells) {
+				grow();
+			}
+		} else if ((size == maxCells) || (++hits >= MAX_HITS)) {
+			flush();
+		}
+	}
+
+	/**
+	 * doubles the size of the hash table, the entries keep their order
+	 */
+	private final void grow() {
+		capacityBits++;
+		maxCells = HistogramBuffer.maxCells(capacityBits);
+		indices = Arrays.copyOf(indices, maxCells);
+		cells = Arrays.copyOf(cells, maxCells * 4);
+
+		slots = new int[1 << capacityBits];
+		Arrays.fill(slots, -1);
+		for (int e = 0; e < size; e++) {
+			int slot = (indices[e] * 0x9E3779B9) >>> (32 - capacityBits);
+			while (slots[slot] != -1) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			slots[slot] = e;
+		}
+	}
+
+	/**
+	 * merges everything in the buffer into the histogram and empties the buffer
+	 */
+	public final void flush() {
+		if ((size > 0) || (misses > 0)) {
+			histogram.merge(this);
+		}
+		hits = 0;
+	}
+
+	/**
+	 * empties the buffer, called by the histogram once it's been merged
+	 */
+	final void clear() {
+		Arrays.fill(slots, -1);
+		for (int i = 0; i < (4 * size); i++) {
+			cells[i] = 0;
+		}
+		size = 0;
+		misses = 0;
+	}
+}
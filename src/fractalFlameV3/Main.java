@@ -11,9 +11,12 @@ import processing.core.PConstants;
 
 import com.google.gson.GsonBuilder;
 
+import fractalFlameV3.accumulator.AccumulatorType;
 import fractalFlameV3.fractalGenome.FractalGenome;
-import fractalFlameV3.fractalThread.FractalThread;
-import fractalFlameV3.fractalThread.ThreadSignal;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.DeterministicRender;
+import fractalFlameV3.fractalThread.RenderScheduler;
+import fractalFlameV3.fractalThread.ToneMapThread;
 
 public class Main extends PApplet {
 	static boolean	         fullscreen	        = false;
@@ -25,12 +28,74 @@ public class Main extends PApplet {
 
 	int	                     fr	                = 60;
 
+	// number of times a second the histogram is tone mapped in the background
+	int	                     toneMapRate	    = 30;
+	ToneMapThread	         toneMapper;
+
+	// areas of the screen that changed in the last tone mapped frame, as x, y, width, height
+	int[]	                 regions;
+
+	// when true each thread hits its own HistogramBuffer, which is merged into the histogram
+	// periodically, rather than every thread synchronizing on the histogram for every sample
+	boolean	                 bufferedHits	    = true;
+
+	// when true the histogram is density estimated before it's tone mapped, 'd' toggles it
+	boolean	                 densityEstimation	= false;
+	final DensityEstimationFilter	densityEstimationFilter	= new DensityEstimationFilter(9, 0, 0.4);
+
+	// when true each thread advances a batch of points at a time, see BatchChaosGame, 'e' toggles
+	// it
+	boolean	                 batchedIterations	= true;
+
+	// when true the variations use FastMath's approximations, which is fine for exploring, 'm'
+	// toggles it
+	boolean	                 fastMath	        = true;
+
+	// when true the genome is rendered for exactly deterministicIterations iterations, and the
+	// histogram comes out the same on any number of threads, see DeterministicRender. 'x' toggles it,
+	// and any change to the genome, camera, histogram or FastMath starts the render again
+	boolean	                 deterministic	    = false;
+	long	                 deterministicIterations	= 200000000;
+	DeterministicRender	     render;
+
+	// when true the points the threads play are kept in pointCache, and when only the camera or the
+	// histogram changes the new histogram is filled from the cache straight away rather than
+	// starting from black. 'p' toggles it
+	boolean	                 pointCaching	    = true;
+	int	                     pointCacheCapacity	= 1 << 21;
+	PointCache	             pointCache;
+
+	// the histogram, and its epoch, when the scheduler was last retargeted. If either has changed
+	// since, the histogram is empty
+	Histogram	             lastHistogram;
+	int	                     lastEpoch;
+
+	// when true the scheduler is paused, and the image and genome saved, once the histogram reaches
+	// qualityTarget. It starts again when anything is changed. 'q' toggles it
+	boolean	                 autoStop	        = false;
+	final QualityTarget	     qualityTarget	    = new QualityTarget(500, 1, 30, 0);
+	boolean	                 converged	        = false;
+
+	// kind of accumulator backing the histogram, 'a' cycles through them
+	AccumulatorType	         accumulatorType	= AccumulatorType.SYNCHRONIZED;
+
+	// used to report samples per second and merge times once a second
+	long	                 lastReportTime	    = System.nanoTime();
+	long	                 lastReportSamples	= 0;
+	long	                 lastReportMerges	= 0;
+	long	                 lastReportMergeNanos	= 0;
+
+	// every thread of the scheduler gets its own stream of random numbers split from this
+	final BlockRandom	     random	            = new BlockRandom(System.nanoTime());
+
 	Histogram	             h;
 	ArrayList<FractalGenome>	genomeList;
 	int	                     genomeListPosition	= 0;
 	FractalGenome	         currentGenome;
-	FractalThread[]	         threads;
-	ThreadSignal	         threadSignal;
+
+	// what the scheduler's threads are rendering, the latest snapshot of currentGenome
+	GenomeSnapshot	         snapshot;
+	RenderScheduler	         scheduler;
 
 	final int	             SYSTEM_THREADS	    = Runtime.getRuntime().availableProcessors();
 
@@ -54,13 +119,17 @@ public class Main extends PApplet {
 		this.size(swid, shei);
 		frameRate(fr);
 
+		FastMath.setFast(fastMath);
 		h = newHistogram();
 		currentGenome = loadLastGenome();
 		genomeList = new ArrayList<FractalGenome>();
 		genomeList.add(currentGenome);
-		threads = new FractalThread[1];
-		threadSignal = new ThreadSignal();
-		startThreads();
+		scheduler = new RenderScheduler(maxFlameThreads, random);
+		retarget();
+
+		toneMapper = new ToneMapThread(swid, shei, toneMapRate, h, currentGenome);
+		regions = new int[4 * toneMapper.getMaxRegions()];
+		toneMapper.start();
 
 	}
 
@@ -99,19 +168,39 @@ public class Main extends PApplet {
 	}
 
 	private Histogram newHistogram() {
-		final Histogram h = new Histogram(swid, shei, ss);
+		// a histogram that won't comfortably fit in the heap is kept off the heap instead
+		final long histogramBytes = (long) swid * ss * shei * ss * accumulatorType.bytesPerCell;
+		AccumulatorType type = accumulatorType;
+		if (type.onHeap && (histogramBytes > (Runtime.getRuntime().maxMemory() / 2))) {
+			type = AccumulatorType.MAPPED;
+			System.out.println("# AC\t|\t " + type + " (" + (histogramBytes >> 20) + "MB histogram)");
+		}
+
+		final Histogram h = new Histogram(swid, shei, ss, type);
+		h.setBuffered(bufferedHits);
+		h.setDensityEstimation(densityEstimation ? densityEstimationFilter : null);
 		return h;
 	}
 
+	/**
+	 * stops the threads and the tone mapper using the histogram and releases it, before a new one
+	 * is made. retarget() starts the threads again
+	 */
+	private void closeHistogram() {
+		scheduler.pause();
+		toneMapper.setHistogram(null);
+		h.close();
+		h = null;
+		System.gc();
+	}
+
 	@Override
 	public void keyPressed() {
-		stopThreads();
 		switch (keyCode) {
 		case 'h':
 		case 'H':
 			ss = (ss == 1) ? SS_MAX : 1;
-			h = null;
-			System.gc();
+			closeHistogram();
 			h = newHistogram();
 			System.out.println("# SS\t|\t " + ss);
 			break;
@@ -124,8 +213,58 @@ public class Main extends PApplet {
 
 		case 't':
 		case 'T':
-			threads = new FractalThread[(threads.length == 8) ? 1 : 8];
-			System.out.println("# TH\t|\t " + threads.length);
+			scheduler.setThreads((scheduler.getThreads() == 1) ? scheduler.getMaxThreads() : 1);
+			System.out.println("# TH\t|\t " + scheduler.getThreads());
+			break;
+
+		case 'a':
+		case 'A':
+			accumulatorType = accumulatorType.next();
+			closeHistogram();
+			h = newHistogram();
+			System.out.println("# AC\t|\t " + accumulatorType);
+			break;
+
+		case 'b':
+		case 'B':
+			bufferedHits = !bufferedHits;
+			h.setBuffered(bufferedHits);
+			System.out.println("# BH\t|\t " + bufferedHits);
+			break;
+
+		case 'd':
+		case 'D':
+			densityEstimation = !densityEstimation;
+			h.setDensityEstimation(densityEstimation ? densityEstimationFilter : null);
+			System.out.println("# DE\t|\t " + densityEstimation);
+			break;
+
+		case 'e':
+		case 'E':
+			batchedIterations = !batchedIterations;
+			System.out.println("# BI\t|\t " + batchedIterations);
+			break;
+
+		case 'x':
+		case 'X':
+			deterministic = !deterministic;
+			System.out.println("# DR\t|\t " + deterministic);
+			break;
+
+		case 'p':
+		case 'P':
+			pointCaching = !pointCaching;
+			System.out.println("# PC\t|\t " + pointCaching);
+			break;
+
+		case 'm':
+		case 'M':
+			// FastMath can only be switched while nothing is iterating, retarget() resumes the
+			// scheduler
+			scheduler.pause();
+			fastMath = !fastMath;
+			FastMath.setFast(fastMath);
+			System.out.println("# FM\t|\t " + fastMath);
 			break;
 
 		case 'f':
@@ -144,9 +283,14 @@ public class Main extends PApplet {
 
 		case 's':
 		case 'S':
-			final String fileName = "images/" + currentGenome.hashCode() + ".bmp";
-			saveFrame(fileName);
-			currentGenome.saveGsonRepresentation();
+			save();
+			break;
+
+		case 'q':
+		case 'Q':
+			autoStop = !autoStop;
+			converged = false;
+			System.out.println("# QT\t|\t " + autoStop);
 			break;
 
 		case 'c':
@@ -185,6 +329,24 @@ public class Main extends PApplet {
 			}
 			break;
 
+		case '1':
+		case '2':
+			FractalGenome.gamma = Utils.max(FractalGenome.gamma + ((keyCode == '1') ? -0.1 : 0.1), 0.1);
+			System.out.println("# GM\t|\t " + FractalGenome.gamma);
+			break;
+
+		case '3':
+		case '4':
+			FractalGenome.brightness = Utils.max(FractalGenome.brightness + ((keyCode == '3') ? -0.1 : 0.1), 0.1);
+			System.out.println("# BR\t|\t " + FractalGenome.brightness);
+			break;
+
+		case '5':
+		case '6':
+			FractalGenome.vibrancy = Utils.constrain(FractalGenome.vibrancy + ((keyCode == '5') ? -0.1 : 0.1), 0, 1);
+			System.out.println("# VB\t|\t " + FractalGenome.vibrancy);
+			break;
+
 		case PConstants.UP:
 			currentGenome.cameraYOffset += .01 * currentGenome.cameraYShrink;
 			h.reset();
@@ -205,40 +367,132 @@ public class Main extends PApplet {
 			h.reset();
 			break;
 		}
-		startThreads();
+		toneMapper.setHistogram(h);
+		toneMapper.setGenome(currentGenome);
+		retarget();
 	}
 
-	private void stopThreads() {
-		threadSignal.running = false;
-		for (final Thread t : threads) {
-			try {
-				t.join();
-			} catch (final InterruptedException e) {
-				System.out.println(e.getLocalizedMessage());
+	/**
+	 * points the scheduler at a snapshot of the current genome and the histogram, and resumes it if
+	 * it was paused. The threads pick the new target up as they're running, and nothing changes if
+	 * neither the genome, the camera nor the histogram have.
+	 */
+	private void retarget() {
+		snapshot = GenomeSnapshot.update(snapshot, currentGenome);
+		h.setCamera(snapshot);
+
+		if (!pointCaching) {
+			pointCache = null;
+		} else if (!deterministic) {
+			if (pointCache == null) {
+				pointCache = new PointCache(pointCacheCapacity);
+			}
+			// the cache is emptied if the genome has changed, otherwise only the camera or the
+			// histogram has, and the points can fill an empty histogram
+			pointCache.setGenome(snapshot.hash);
+			if ((h != lastHistogram) || (h.getEpoch() != lastEpoch)) {
+				final long start = System.nanoTime();
+				final int n = pointCache.rebin(h);
+				if (n > 0) {
+					System.out.println("# PC\t|\t " + n + " points rebinned in " + ((System.nanoTime() - start) / 1e6)
+					        + "ms");
+				}
 			}
 		}
-	}
 
-	private void startThreads() {
-		threadSignal.running = true;
-		for (final int i : Utils.range(threads.length)) {
-			threads[i] = new FractalThread(currentGenome, threadSignal, h);
+		if (deterministic) {
+			if ((render == null) || (render.getGenome() != snapshot) || (render.getHistogram() != h)
+			        || (render.isBatched() != batchedIterations) || (render.getEpoch() != h.getEpoch())
+			        || (render.isFast() != FastMath.isFast())) {
+				// the render has to start from an empty histogram to come out the same every time
+				h.reset();
+				render = new DeterministicRender(snapshot, h, deterministicIterations, batchedIterations);
+			}
+			scheduler.setTarget(render);
+		} else {
+			render = null;
+			scheduler.setTarget(snapshot, h, batchedIterations, pointCache);
+		}
+		// the render starts again if the histogram is empty
+		if ((h != lastHistogram) || (h.getEpoch() != lastEpoch)) {
+			converged = false;
+			qualityTarget.restart();
 		}
-		for (final Thread t : threads) {
-			t.start();
+		lastHistogram = h;
+		lastEpoch = h.getEpoch();
+
+		if (!converged) {
+			scheduler.resume();
 		}
 	}
 
+	/**
+	 * saves the screen and the current genome to images/
+	 */
+	private void save() {
+		final String fileName = "images/" + currentGenome.hashCode() + ".bmp";
+		saveFrame(fileName);
+		currentGenome.saveGsonRepresentation();
+	}
+
 	@Override
 	public void draw() {
 		if (frameCount == 1) {
 			loadPixels();
 		} else {
-			h.updatePixels(pixels, currentGenome);
-			this.updatePixels();
+			final int nRegions = toneMapper.copyFrame(pixels, regions);
+			for (int i = 0; i < nRegions; i++) {
+				this.updatePixels(regions[(4 * i) + 0], regions[(4 * i) + 1], regions[(4 * i) + 2],
+				        regions[(4 * i) + 3]);
+			}
 		}
 		if ((frameCount % 10) == 0) {
 			// System.out.println("#FPS: " + frameRate);
 		}
+		if ((frameCount % fr) == 0) {
+			report();
+		}
+		if (autoStop && !converged && qualityTarget.reached(h.getStats())) {
+			// stopping the threads frees the cores until something changes
+			converged = true;
+			scheduler.pause();
+			System.out.println("# QT\t|\t converged, " + h.getStats());
+			save();
+		}
+	}
+
+	/**
+	 * prints the number of samples per second landing in the histogram, and how long merging the
+	 * thread buffers took, since the last report
+	 */
+	private void report() {
+		final long now = System.nanoTime();
+		final long samples = h.getSamples();
+		final long merges = h.getMerges();
+		final long mergeNanos = h.getMergeNanos();
+
+		// the histogram was reset or replaced since the last report
+		if ((samples < lastReportSamples) || (merges < lastReportMerges)) {
+			lastReportSamples = 0;
+			lastReportMerges = merges;
+			lastReportMergeNanos = mergeNanos;
+		}
+
+		final double seconds = (now - lastReportTime) / 1e9;
+		System.out.println("# SPS\t|\t " + (long) ((samples - lastReportSamples) / seconds));
+		final QualityStats stats = h.getStats();
+		if (stats != null) {
+			System.out.println("# QS\t|\t " + stats);
+		}
+		if (merges > lastReportMerges) {
+			final double mergeMillis = (mergeNanos - lastReportMergeNanos) / 1e6;
+			System.out.println("# MG\t|\t " + (merges - lastReportMerges) + " merges, "
+			        + (mergeMillis / (merges - lastReportMerges)) + "ms avg, " + mergeMillis + "ms total");
+		}
+
+		lastReportTime = now;
+		lastReportSamples = samples;
+		lastReportMerges = merges;
+		lastReportMergeNanos = mergeNanos;
 	}
 }
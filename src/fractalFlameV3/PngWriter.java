@@ -0,0 +1,104 @@
+package fractalFlameV3;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes pixels to a PNG file without going through AWT or Processing, so images can be saved on a
+ * machine without a display. The image is written as 8 bit RGB, each row is run through the "sub"
+ * filter, which suits the smooth gradients of a flame, and all of the rows are deflated into a
+ * single IDAT chunk.
+ *
+ * @author aaron
+ *
+ */
+public final class PngWriter {
+	private static final byte[]	SIGNATURE	= { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	/**
+	 * the row filter, see the PNG specification
+	 */
+	private static final int	FILTER_SUB	= 1;
+
+	private PngWriter() {
+	}
+
+	/**
+	 * writes the ARGB pixels, laid out row by row, to a PNG file. The alpha channel is dropped
+	 */
+	public static final void write(final int[] pixels, final int width, final int height, final String fileName)
+	        throws IOException {
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName));
+		try {
+			PngWriter.write(pixels, width, height, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static final void write(final int[] pixels, final int width, final int height, final OutputStream out)
+	        throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		data.write(SIGNATURE);
+
+		final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		final DataOutputStream headerData = new DataOutputStream(header);
+		headerData.writeInt(width);
+		headerData.writeInt(height);
+		headerData.writeByte(8); // bits per channel
+		headerData.writeByte(2); // RGB
+		headerData.writeByte(0); // deflate
+		headerData.writeByte(0); // adaptive filtering
+		headerData.writeByte(0); // not interlaced
+		PngWriter.chunk(data, "IHDR", header.toByteArray());
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		final DeflaterOutputStream deflated = new DeflaterOutputStream(compressed, deflater, 1 << 16);
+		final byte[] row = new byte[1 + (3 * width)];
+		row[0] = FILTER_SUB;
+		for (int y = 0; y < height; y++) {
+			int last = 0;
+			for (int x = 0; x < width; x++) {
+				final int p = pixels[x + (y * width)];
+				final int i = 1 + (3 * x);
+				// each byte is stored as its difference from the same channel of the pixel to its
+				// left
+				row[i + 0] = (byte) (((p >> 16) & 0xFF) - ((last >> 16) & 0xFF));
+				row[i + 1] = (byte) (((p >> 8) & 0xFF) - ((last >> 8) & 0xFF));
+				row[i + 2] = (byte) ((p & 0xFF) - (last & 0xFF));
+				last = p;
+			}
+			deflated.write(row);
+		}
+		deflated.finish();
+		deflater.end();
+		PngWriter.chunk(data, "IDAT", compressed.toByteArray());
+
+		PngWriter.chunk(data, "IEND", new byte[0]);
+		data.flush();
+	}
+
+	/**
+	 * writes a chunk, its length, type, data and the CRC of its type and data
+	 */
+	private static final void chunk(final DataOutputStream out, final String type, final byte[] data)
+	        throws IOException {
+		final byte[] typeBytes = type.getBytes("US-ASCII");
+		final CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+
+		out.writeInt(data.length);
+		out.write(typeBytes);
+		out.write(data);
+		out.writeInt((int) crc.getValue());
+	}
+}
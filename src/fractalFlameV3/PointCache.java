@@ -0,0 +1,210 @@
+package fractalFlameV3;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A bounded ring buffer of the most recent points the chaos game has hit, after the final
+ * transform and before the camera, along with their colors. The points don't depend on the camera,
+ * so when only the camera moves the histogram can be reset and refilled from the cache with
+ * rebin() straight away, rather than starting again from black.
+ *
+ * The points are stored as floats, x, y, r, g and b, so each one costs 20 bytes. The threads
+ * record into their own Recorder, which hands its points over to the cache a chunk at a time.
+ * Every point belongs to the genome whose content hash the cache was last set to, and points
+ * recorded for any other genome are thrown away.
+ *
+ * @author aaron
+ *
+ */
+public final class PointCache {
+	/**
+	 * pool that rebins the cache in parallel, shared by every cache
+	 */
+	private static final ForkJoinPool	pool	= new ForkJoinPool();
+
+	/**
+	 * points a Recorder holds before handing them over to the cache
+	 */
+	private static final int	      CHUNK	    = 1 << 12;
+
+	/**
+	 * a task rebins at least this many points
+	 */
+	private static final int	      MIN_TASK	= 1 << 16;
+
+	/**
+	 * the most points the cache holds
+	 */
+	private final int	              capacity;
+
+	/**
+	 * point i is points[(5 * i) + 0] to points[(5 * i) + 4], its x, y, r, g and b
+	 */
+	private final float[]	          points;
+
+	/**
+	 * number of points in the cache, and the point the next one is written over once it's full.
+	 * Guarded by this
+	 */
+	private int	                      size	    = 0;
+	private int	                      next	    = 0;
+
+	/**
+	 * content hash of the genome the points belong to
+	 */
+	private volatile long	          hash;
+
+	/**
+	 * @param capacity
+	 *            the most points the cache holds
+	 */
+	public PointCache(final int capacity) {
+		this.capacity = capacity;
+		points = new float[5 * capacity];
+	}
+
+	/**
+	 * empties the cache if hash isn't the content hash of the genome it holds points of, and takes
+	 * points for that genome from now on
+	 */
+	public final synchronized void setGenome(final long hash) {
+		if (hash != this.hash) {
+			this.hash = hash;
+			size = 0;
+			next = 0;
+		}
+	}
+
+	public final synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * hits every point in the cache into histogram, in parallel. The histogram should have been
+	 * reset, and its camera set, beforehand. Recorders that hand over their points while the cache
+	 * is being rebinned wait until it's finished
+	 *
+	 * @return the number of points hit
+	 */
+	public final synchronized int rebin(final Histogram histogram) {
+		if (size > 0) {
+			final int tasks = Utils.max(Utils.min(size / MIN_TASK, 4 * PointCache.pool.getParallelism()), 1);
+			PointCache.pool.invoke(new RebinTask(histogram, 0, size, ((size + tasks) - 1) / tasks));
+		}
+		return size;
+	}
+
+	/**
+	 * copies the first n points of a recorder's chunk into the cache, over the oldest points once
+	 * it's full
+	 */
+	private final synchronized void add(final float[] chunk, final int n, final long hash) {
+		if (hash != this.hash) {
+			return;
+		}
+		int copied = 0;
+		while (copied < n) {
+			final int length = Utils.min(n - copied, capacity - next);
+			System.arraycopy(chunk, 5 * copied, points, 5 * next, 5 * length);
+			copied += length;
+			next = (next + length) % capacity;
+			size = Utils.min(size + length, capacity);
+		}
+	}
+
+	/**
+	 * hits the points [start, end) of the cache into histogram through a private HistogramBuffer
+	 */
+	private final void rebin(final Histogram histogram, final int start, final int end) {
+		final HistogramBuffer buffer = new HistogramBuffer(histogram);
+		final Vec2D p = new Vec2D(0, 0);
+		final ColorSet c = new ColorSet(0);
+		for (int i = 5 * start; i < (5 * end); i += 5) {
+			p.set(points[i + 0], points[i + 1]);
+			c.set(points[i + 2], points[i + 3], points[i + 4]);
+			buffer.hit(p, c);
+		}
+		buffer.flush();
+	}
+
+	/**
+	 * rebins a range of the cache, splitting it in half until it's no more than 'grain' points
+	 */
+	private final class RebinTask extends RecursiveAction {
+		private static final long	serialVersionUID	= 1L;
+
+		private final Histogram	  histogram;
+		private final int	      start;
+		private final int	      end;
+		private final int	      grain;
+
+		RebinTask(final Histogram histogram, final int start, final int end, final int grain) {
+			this.histogram = histogram;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if ((end - start) <= grain) {
+				rebin(histogram, start, end);
+				return;
+			}
+			final int mid = (start + end) >>> 1;
+			invokeAll(new RebinTask(histogram, start, mid, grain), new RebinTask(histogram, mid, end, grain));
+		}
+	}
+
+	/**
+	 * A private, per-thread buffer of points for a PointCache, so the cache is only locked once per
+	 * CHUNK points
+	 */
+	public static final class Recorder {
+		private final float[]	chunk	= new float[5 * CHUNK];
+
+		private int	          size	= 0;
+
+		private PointCache	  cache;
+
+		/**
+		 * the content hash of the genome being recorded
+		 */
+		private long	      hash;
+
+		/**
+		 * records points of the genome with content hash 'hash' into cache from now on, anything
+		 * recorded before is handed over to the last cache first
+		 */
+		public final void set(final PointCache cache, final long hash) {
+			if ((cache != this.cache) || (hash != this.hash)) {
+				flush();
+				this.cache = cache;
+				this.hash = hash;
+			}
+		}
+
+		public final void record(final Vec2D p, final ColorSet c) {
+			final int i = 5 * size;
+			chunk[i + 0] = (float) p.x;
+			chunk[i + 1] = (float) p.y;
+			chunk[i + 2] = (float) c.r;
+			chunk[i + 3] = (float) c.g;
+			chunk[i + 4] = (float) c.b;
+			if (++size == CHUNK) {
+				flush();
+			}
+		}
+
+		/**
+		 * hands the recorded points over to the cache
+		 */
+		public final void flush() {
+			if ((cache != null) && (size > 0)) {
+				cache.add(chunk, size, hash);
+			}
+			size = 0;
+		}
+	}
+}
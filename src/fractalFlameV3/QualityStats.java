@@ -0,0 +1,67 @@
+package fractalFlameV3;
+
+/**
+ * How far a render has got, measured by a Histogram every time it tone maps the screen. Used by
+ * QualityTarget to tell when the image has stopped improving.
+ *
+ * @author aaron
+ *
+ */
+public final class QualityStats {
+	/**
+	 * number of frames the histogram has tone mapped since it was created, each new set of stats
+	 * has a larger frame
+	 */
+	public final long	frame;
+
+	/**
+	 * samples that have landed in the histogram, and samples that fell outside of it, since it was
+	 * last reset
+	 */
+	public final long	samples;
+	public final long	misses;
+
+	/**
+	 * pixels of the screen that at least one sample has landed in, and pixels on the screen
+	 */
+	public final int	litPixels;
+	public final int	pixels;
+
+	/**
+	 * the mean difference, in levels of 0 to 255, of the tone mapped density of each pixel of the
+	 * screen between this frame and the last one, and the largest mean difference of any tile
+	 */
+	public final double	change;
+	public final double	maxTileChange;
+
+	public QualityStats(final long frame, final long samples, final long misses, final int litPixels,
+	        final int pixels, final double change, final double maxTileChange) {
+		this.frame = frame;
+		this.samples = samples;
+		this.misses = misses;
+		this.litPixels = litPixels;
+		this.pixels = pixels;
+		this.change = change;
+		this.maxTileChange = maxTileChange;
+	}
+
+	/**
+	 * samples per pixel that has been hit at all, 0 before anything has been hit
+	 */
+	public final double samplesPerPixel() {
+		return (litPixels > 0) ? (double) samples / litPixels : 0;
+	}
+
+	/**
+	 * fraction of the samples played that landed in the histogram
+	 */
+	public final double inBounds() {
+		return ((samples + misses) > 0) ? (double) samples / (samples + misses) : 0;
+	}
+
+	@Override
+	public final String toString() {
+		return String.format("%.1f samples/px, %.1f%% lit, %.1f%% in bounds, change %.3f (max tile %.3f)",
+		        samplesPerPixel(), (100.0 * litPixels) / pixels, 100 * inBounds(), change, maxTileChange);
+	}
+}
@@ -0,0 +1,67 @@
+package fractalFlameV3;
+
+/**
+ * Decides when a render is done, from the QualityStats of its histogram. A render is done once
+ * there are at least samplesPerPixel samples per lit pixel and no tile has changed by more than
+ * maxChange for stableFrames tone mapped frames in a row, or once it has used up its budget of
+ * samples, whichever comes first.
+ *
+ * @author aaron
+ *
+ */
+public final class QualityTarget {
+	private final double	samplesPerPixel;
+	private final double	maxChange;
+	private final int	    stableFrames;
+	private final long	    maxSamples;
+
+	/*
+	 * frame of the last stats looked at, and number of frames in a row that have met the target
+	 */
+	private long	        lastFrame	= -1;
+	private int	            stable	    = 0;
+
+	/**
+	 * @param samplesPerPixel
+	 *            samples per lit pixel the render needs
+	 * @param maxChange
+	 *            the most a tile may change from one frame to the next, in levels of 0 to 255
+	 * @param stableFrames
+	 *            number of frames in a row the image has to have stayed within maxChange
+	 * @param maxSamples
+	 *            the render is done after this many samples whatever its quality, 0 for no budget
+	 */
+	public QualityTarget(final double samplesPerPixel, final double maxChange, final int stableFrames,
+	        final long maxSamples) {
+		this.samplesPerPixel = samplesPerPixel;
+		this.maxChange = maxChange;
+		this.stableFrames = stableFrames;
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * returns true once the render that stats measure is done, stats may be null if nothing has
+	 * been measured yet. Each frame is only counted once, however often it's passed in
+	 */
+	public final boolean reached(final QualityStats stats) {
+		if (stats == null) {
+			return false;
+		}
+		if ((maxSamples > 0) && (stats.samples >= maxSamples)) {
+			return true;
+		}
+		if (stats.frame != lastFrame) {
+			lastFrame = stats.frame;
+			final boolean met = (stats.samplesPerPixel() >= samplesPerPixel) && (stats.maxTileChange <= maxChange);
+			stable = met ? stable + 1 : 0;
+		}
+		return stable >= stableFrames;
+	}
+
+	/**
+	 * forgets the frames seen so far, for when the render starts again
+	 */
+	public final void restart() {
+		stable = 0;
+	}
+}
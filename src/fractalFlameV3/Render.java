@@ -0,0 +1,288 @@
+package fractalFlameV3;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import fractalFlameV3.accumulator.AccumulatorType;
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.DeterministicRender;
+import fractalFlameV3.fractalThread.RenderScheduler;
+
+/**
+ * Renders a list of genomes to PNG files without opening a window, so it can run on a machine
+ * without a display. Each genome is rendered by a DeterministicRender on a RenderScheduler with a
+ * thread for every core, so the same genome comes out the same on any machine. While one genome is
+ * rendering the last one is tone mapped and written out in the background, so the cores never wait
+ * on the disk. Each image is written next to its genome, with the extension replaced by .png.
+ *
+ * Every CHECKPOINT_INTERVAL, and when the JVM is shut down, the render is saved to a Checkpoint
+ * next to its genome, with the extension replaced by .checkpoint, in the background. If a genome
+ * has a checkpoint of a render with the same settings it's carried on from there rather than
+ * started again, and the checkpoint is deleted once the image has been written.
+ *
+ * usage: Render [width] [height] [ss] [iterations] [genome files...]
+ *
+ * @author aaron
+ *
+ */
+public final class Render {
+	/**
+	 * how often a render is checkpointed
+	 */
+	private static final long	             CHECKPOINT_INTERVAL	= TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * saves the render in progress, or null, run when the JVM is shut down
+	 */
+	private static volatile SaveCheckpoint	rendering	        = null;
+
+	public static void main(final String[] args) throws InterruptedException {
+		if (args.length < 5) {
+			System.out.println("usage: Render [width] [height] [ss] [iterations] [genome files...]");
+			return;
+		}
+		final int swid = Integer.parseInt(args[0]);
+		final int shei = Integer.parseInt(args[1]);
+		final int ss = Integer.parseInt(args[2]);
+		final long iterations = Long.parseLong(args[3]);
+
+		final AccumulatorType type = Render.accumulatorType(swid, shei, ss);
+
+		final RenderScheduler scheduler = new RenderScheduler(Runtime.getRuntime().availableProcessors(),
+		        new BlockRandom(System.nanoTime()));
+		final ExecutorService writer = Executors.newSingleThreadExecutor();
+		Future<?> writing = null;
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				final SaveCheckpoint save = Render.rendering;
+				if (save != null) {
+					save.run();
+				}
+			}
+		});
+
+		int rendered = 0;
+		final long start = System.nanoTime();
+		try {
+			for (int i = 4; i < args.length; i++) {
+				final String genomeFile = args[i];
+				final FractalGenome genome;
+				try {
+					genome = Render.readGenome(genomeFile);
+				} catch (final IOException e) {
+					System.out.println(e.getLocalizedMessage());
+					continue;
+				}
+
+				final File checkpointFile = new File(Render.outputFile(genomeFile, ".checkpoint"));
+				final Histogram h = new Histogram(swid, shei, ss, type);
+				DeterministicRender render = Render.resume(checkpointFile, h, genome, swid, shei, ss, iterations);
+				if (render == null) {
+					final GenomeSnapshot snapshot = new GenomeSnapshot(genome);
+					h.setCamera(snapshot);
+					render = new DeterministicRender(snapshot, h, iterations, true);
+				}
+
+				final SaveCheckpoint save = new SaveCheckpoint(genome, swid, shei, ss, render, checkpointFile);
+				Render.rendering = save;
+				scheduler.setTarget(render);
+				scheduler.resume();
+				Future<?> checkpointing = null;
+				while (!render.await(CHECKPOINT_INTERVAL)) {
+					// skip a checkpoint rather than queue them up behind a slow disk
+					if ((checkpointing == null) || checkpointing.isDone()) {
+						checkpointing = writer.submit(save);
+					}
+				}
+				Render.rendering = null;
+
+				// wait for the last image to be written before this one's handed over, so only two
+				// histograms are ever alive
+				Render.finish(writing);
+				writing = writer.submit(new Write(h, genome, swid, shei, Render.pngFile(genomeFile), checkpointFile));
+				rendered++;
+			}
+			Render.finish(writing);
+		} finally {
+			// the writer's thread would keep the JVM alive
+			writer.shutdown();
+		}
+
+		System.out.println("# RN\t|\t " + rendered + " genomes in " + ((System.nanoTime() - start) / 1e9)
+		        + "s");
+	}
+
+	/**
+	 * reads the genome in file
+	 */
+	static final FractalGenome readGenome(final String file) throws IOException {
+		final FileReader reader = new FileReader(file);
+		try {
+			final FractalGenome genome = new Gson().fromJson(reader, FractalGenome.class);
+			if (genome == null) {
+				throw new IOException(file + " is empty");
+			}
+			return genome;
+		} catch (final JsonParseException e) {
+			throw new IOException(file + " has a bad genome", e);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * the kind of accumulator for a histogram of the given size, one that won't comfortably fit in
+	 * the heap twice over, as a histogram can be written while the next one renders, is kept off the
+	 * heap
+	 */
+	static final AccumulatorType accumulatorType(final int swid, final int shei, final int ss) {
+		final long histogramBytes = (long) swid * ss * shei * ss * AccumulatorType.SYNCHRONIZED.bytesPerCell;
+		if (histogramBytes > (Runtime.getRuntime().maxMemory() / 4)) {
+			return AccumulatorType.MAPPED;
+		}
+		return AccumulatorType.SYNCHRONIZED;
+	}
+
+	/**
+	 * returns the render that carries on from the checkpoint in file, with its histogram restored
+	 * into h, or null if there's no checkpoint of a render of genome with these settings
+	 */
+	private static final DeterministicRender resume(final File file, final Histogram h,
+	        final FractalGenome genome, final int swid, final int shei, final int ss, final long iterations) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final Checkpoint checkpoint = Checkpoint.read(file);
+			if (!checkpoint.matches(genome, swid, shei, ss, iterations, true)) {
+				System.out.println(file + " is of a different render, starting again");
+				return null;
+			}
+			final DeterministicRender render = checkpoint.resume(h);
+			System.out.println("# CP\t|\t resuming " + file + " at unit " + checkpoint.getUnit());
+			return render;
+		} catch (final IOException e) {
+			System.out.println(e.getLocalizedMessage());
+			// throw away anything that was restored before it went wrong
+			h.reset();
+			return null;
+		}
+	}
+
+	/**
+	 * waits for an image to be written, printing anything that went wrong
+	 */
+	static final void finish(final Future<?> writing) throws InterruptedException {
+		if (writing == null) {
+			return;
+		}
+		try {
+			writing.get();
+		} catch (final ExecutionException e) {
+			System.out.println(e.getCause().getLocalizedMessage());
+		}
+	}
+
+	static final String pngFile(final String genomeFile) {
+		return Render.outputFile(genomeFile, ".png");
+	}
+
+	/**
+	 * the genome file with its extension replaced by extension
+	 */
+	static final String outputFile(final String genomeFile, final String extension) {
+		final int dot = genomeFile.lastIndexOf('.');
+		final int slash = Math.max(genomeFile.lastIndexOf('/'), genomeFile.lastIndexOf('\\'));
+		return ((dot > slash) ? genomeFile.substring(0, dot) : genomeFile) + extension;
+	}
+
+	/**
+	 * captures a render in progress and writes it to its checkpoint. Runs from the writer and from
+	 * the shutdown hook, never both at once
+	 */
+	private static final class SaveCheckpoint implements Runnable {
+		private final FractalGenome	      genome;
+		private final int	              swid;
+		private final int	              shei;
+		private final int	              ss;
+		private final DeterministicRender	render;
+		private final File	              file;
+
+		SaveCheckpoint(final FractalGenome genome, final int swid, final int shei, final int ss,
+		        final DeterministicRender render, final File file) {
+			this.genome = genome;
+			this.swid = swid;
+			this.shei = shei;
+			this.ss = ss;
+			this.render = render;
+			this.file = file;
+		}
+
+		@Override
+		public synchronized void run() {
+			try {
+				Checkpoint.capture(genome, swid, shei, ss, render).write(file);
+			} catch (final IOException e) {
+				System.out.println(e.getLocalizedMessage());
+			} catch (final InterruptedException e) {
+				System.out.println(e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * tone maps a finished histogram and writes it to a PNG file, then deletes the render's
+	 * checkpoint if it has one. The histogram is closed afterwards, it's the last thing to use it
+	 */
+	static final class Write implements Runnable {
+		private final Histogram	    h;
+		private final FractalGenome	genome;
+		private final int	        swid;
+		private final int	        shei;
+		private final String	    fileName;
+		private final File	        checkpointFile;
+
+		Write(final Histogram h, final FractalGenome genome, final int swid, final int shei, final String fileName,
+		        final File checkpointFile) {
+			this.h = h;
+			this.genome = genome;
+			this.swid = swid;
+			this.shei = shei;
+			this.fileName = fileName;
+			this.checkpointFile = checkpointFile;
+		}
+
+		@Override
+		public void run() {
+			final long start = System.nanoTime();
+			final int[] pixels = new int[swid * shei];
+			try {
+				h.updatePixels(pixels, genome);
+			} finally {
+				h.close();
+			}
+			try {
+				PngWriter.write(pixels, swid, shei, fileName);
+			} catch (final IOException e) {
+				System.out.println(e.getLocalizedMessage());
+				return;
+			}
+			System.out.println("# PNG\t|\t " + fileName + " in " + ((System.nanoTime() - start) / 1e9) + "s");
+			if ((checkpointFile != null) && checkpointFile.isFile() && !checkpointFile.delete()) {
+				System.out.println("can't delete " + checkpointFile);
+			}
+		}
+	}
+}
@@ -0,0 +1,534 @@
+package fractalFlameV3;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.DeterministicRender;
+import fractalFlameV3.fractalThread.RenderScheduler;
+
+/**
+ * A local HTTP service that renders genomes for other tools. Jobs are queued by priority and
+ * rendered one at a time by a DeterministicRender on a single RenderScheduler, with a thread for
+ * every core, that's shared by every job. Because a DeterministicRender always comes out the same,
+ * each result is cached on disk under a hash of the genome's imageHash() and the render settings,
+ * and an identical request is answered from the cache, or joins the job that's already queued,
+ * rather than being rendered again.
+ *
+ * POST /render?width=W&height=H&ss=S&iterations=N&format=png|histogram&priority=P&wait=true|false
+ * with a FractalGenome's JSON as the body. Every parameter but width, height and iterations is
+ * optional, ss defaults to 1, format to png, priority to 0 (higher priorities are rendered first)
+ * and wait to true. The response is the PNG, or the histogram as Histogram.write() writes it, once
+ * it has been rendered. With wait=false the response is 202 with the job's key as soon as it's
+ * queued, and the result can be fetched from GET /result/[key] later, which answers 202 until it's
+ * ready, or 500 with what went wrong if it failed.
+ *
+ * A render's histogram can have at most MAX_CELLS cells, (width * ss) by (height * ss), and
+ * iterations is at most MAX_ITERATIONS.
+ *
+ * GET /status reports the queue.
+ *
+ * The service only listens on the loopback address.
+ *
+ * usage: RenderService [port] [cache directory]
+ *
+ * @author aaron
+ *
+ */
+public final class RenderService {
+	/**
+	 * the most cells a render's histogram can have, 8GB of cells
+	 */
+	public static final long	              MAX_CELLS	= 1L << 28;
+
+	/**
+	 * the most iterations a render can play
+	 */
+	public static final long	              MAX_ITERATIONS	= 1L << 40;
+
+	/**
+	 * the most failed jobs that are remembered
+	 */
+	private static final int	              MAX_FAILED	= 1024;
+
+	private final File	                      cacheDirectory;
+
+	private final RenderScheduler	          scheduler;
+
+	/**
+	 * jobs waiting to be rendered, highest priority first
+	 */
+	private final PriorityBlockingQueue<Job>	queue	  = new PriorityBlockingQueue<Job>();
+
+	/**
+	 * every job that's queued or rendering, by key. Guarded by itself
+	 */
+	private final Map<String, Job>	          jobs	      = new HashMap<String, Job>();
+
+	/**
+	 * what went wrong with each job that failed, by key, the oldest are forgotten first. A job
+	 * that's submitted again is rendered again. Guarded by jobs
+	 */
+	private final Map<String, String>	      failed	  = new LinkedHashMap<String, String>() {
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+			return size() > MAX_FAILED;
+		}
+	};
+
+	/**
+	 * the job being rendered, or null
+	 */
+	private volatile Job	                  rendering	= null;
+
+	/**
+	 * orders jobs of the same priority by when they were submitted
+	 */
+	private final AtomicLong	              submitted	= new AtomicLong();
+
+	private final AtomicLong	              rendered	= new AtomicLong();
+	private final AtomicLong	              cacheHits	= new AtomicLong();
+
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+		final File cacheDirectory = new File((args.length > 1) ? args[1] : "cache");
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			System.out.println("can't create " + cacheDirectory);
+			return;
+		}
+
+		final RenderService service = new RenderService(cacheDirectory);
+		final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/render", service.new RenderHandler());
+		server.createContext("/result/", service.new ResultHandler());
+		server.createContext("/status", service.new StatusHandler());
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		System.out.println("# RS\t|\t listening on port " + port + ", caching in " + cacheDirectory);
+
+		service.run();
+	}
+
+	public RenderService(final File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		scheduler = new RenderScheduler(Runtime.getRuntime().availableProcessors(), new BlockRandom(System.nanoTime()));
+	}
+
+	/**
+	 * renders the queued jobs, highest priority first, forever
+	 */
+	public final void run() throws InterruptedException {
+		while (true) {
+			final Job job = queue.take();
+			rendering = job;
+			IOException error = null;
+			try {
+				render(job);
+			} catch (final IOException e) {
+				System.out.println(e.getLocalizedMessage());
+				error = e;
+			} catch (final Throwable e) {
+				// a genome that can't be rendered, or a render that runs out of memory, mustn't stop
+				// the service
+				System.out.println(e);
+				error = new IOException(e);
+			}
+			rendered.incrementAndGet();
+			rendering = null;
+
+			synchronized (jobs) {
+				jobs.remove(job.key);
+				if (error != null) {
+					failed.put(job.key, String.valueOf(error.getLocalizedMessage()));
+				}
+			}
+			job.finish(error);
+		}
+	}
+
+	/**
+	 * returns the job that renders genome with settings, which is already done if the result is in
+	 * the cache, and is the job that's already queued if there is one
+	 */
+	public final Job submit(final FractalGenome genome, final Settings settings, final int priority) {
+		final String key = settings.key(genome);
+		final File file = new File(cacheDirectory, key + settings.extension());
+		synchronized (jobs) {
+			final Job queued = jobs.get(key);
+			if (queued != null) {
+				return queued;
+			}
+			failed.remove(key);
+			if (file.isFile()) {
+				cacheHits.incrementAndGet();
+				return new Job(key, file);
+			}
+			final Job job = new Job(key, file, genome, settings, priority, submitted.getAndIncrement());
+			jobs.put(key, job);
+			queue.add(job);
+			return job;
+		}
+	}
+
+	/**
+	 * renders a job into its cache file. The result is written to a temporary file first, so a
+	 * half written result is never served
+	 */
+	private final void render(final Job job) throws IOException {
+		final long start = System.nanoTime();
+		final Settings s = job.settings;
+
+		final GenomeSnapshot snapshot = new GenomeSnapshot(job.genome);
+		final Histogram h = new Histogram(s.width, s.height, s.ss, Render.accumulatorType(s.width, s.height, s.ss));
+		h.setCamera(snapshot);
+		final DeterministicRender render = new DeterministicRender(snapshot, h, s.iterations, true);
+		final File temp = new File(cacheDirectory, job.key + ".tmp");
+		try {
+			scheduler.setTarget(render);
+			scheduler.resume();
+			try {
+				render.await();
+			} catch (final InterruptedException e) {
+				throw new IOException(e);
+			}
+
+			final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+			try {
+				if (s.png) {
+					final int[] pixels = new int[s.width * s.height];
+					h.updatePixels(pixels, job.genome);
+					PngWriter.write(pixels, s.width, s.height, out);
+				} else {
+					h.write(out);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			// the threads must be done with the histogram before it's closed
+			scheduler.pause();
+			h.close();
+		}
+		if (!temp.renameTo(job.file)) {
+			temp.delete();
+			throw new IOException("can't move " + temp + " to " + job.file);
+		}
+
+		System.out.println("# RS\t|\t " + job.file.getName() + " in " + ((System.nanoTime() - start) / 1e9) + "s");
+	}
+
+	/**
+	 * what to render a genome at
+	 */
+	public static final class Settings {
+		final int	  width;
+		final int	  height;
+		final int	  ss;
+		final long	  iterations;
+
+		/*
+		 * true for a PNG, false for the histogram
+		 */
+		final boolean	png;
+
+		public Settings(final int width, final int height, final int ss, final long iterations, final boolean png) {
+			this.width = width;
+			this.height = height;
+			this.ss = ss;
+			this.iterations = iterations;
+			this.png = png;
+		}
+
+		/**
+		 * a hash of everything that decides the result of rendering genome with these settings,
+		 * as 16 hex digits
+		 */
+		final String key(final FractalGenome genome) {
+			long hash = genome.imageHash();
+			hash = BlockRandom.splitMix(hash ^ width);
+			hash = BlockRandom.splitMix(hash ^ height);
+			hash = BlockRandom.splitMix(hash ^ ss);
+			hash = BlockRandom.splitMix(hash ^ iterations);
+			hash = BlockRandom.splitMix(hash ^ (FastMath.isFast() ? 1 : 0));
+			if (png) {
+				hash = BlockRandom.splitMix(hash ^ Double.doubleToLongBits(FractalGenome.gamma));
+				hash = BlockRandom.splitMix(hash ^ Double.doubleToLongBits(FractalGenome.brightness));
+				hash = BlockRandom.splitMix(hash ^ Double.doubleToLongBits(FractalGenome.vibrancy));
+			}
+			final String hex = Long.toHexString(hash);
+			return "0000000000000000".substring(hex.length()) + hex;
+		}
+
+		final String extension() {
+			return png ? ".png" : ".histogram";
+		}
+	}
+
+	/**
+	 * a genome to render, or a result that was already in the cache
+	 */
+	public static final class Job implements Comparable<Job> {
+		final String	    key;
+		final File	        file;
+		final FractalGenome	genome;
+		final Settings	    settings;
+		final int	        priority;
+		final long	        sequence;
+
+		/*
+		 * guarded by this
+		 */
+		private boolean	    done;
+		private IOException	error;
+
+		Job(final String key, final File file, final FractalGenome genome, final Settings settings,
+		        final int priority, final long sequence) {
+			this.key = key;
+			this.file = file;
+			this.genome = genome;
+			this.settings = settings;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * a job whose result is already in the cache
+		 */
+		Job(final String key, final File file) {
+			this(key, file, null, null, 0, -1);
+			done = true;
+		}
+
+		public final String getKey() {
+			return key;
+		}
+
+		public final synchronized boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * waits until the job has been rendered, and returns the file holding its result
+		 */
+		public final synchronized File await() throws IOException, InterruptedException {
+			while (!done) {
+				wait();
+			}
+			if (error != null) {
+				throw error;
+			}
+			return file;
+		}
+
+		final synchronized void finish(final IOException error) {
+			this.error = error;
+			done = true;
+			notifyAll();
+		}
+
+		@Override
+		public final int compareTo(final Job j) {
+			if (priority != j.priority) {
+				return (priority > j.priority) ? -1 : 1;
+			}
+			return (sequence < j.sequence) ? -1 : ((sequence > j.sequence) ? 1 : 0);
+		}
+	}
+
+	/**
+	 * POST /render, see the class comment
+	 */
+	private final class RenderHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					RenderService.respond(exchange, 405, "POST a genome to render it");
+					return;
+				}
+
+				final Map<String, String> query = RenderService.query(exchange);
+				final Job job;
+				try {
+					final int width = Integer.parseInt(RenderService.get(query, "width", null));
+					final int height = Integer.parseInt(RenderService.get(query, "height", null));
+					final int ss = Integer.parseInt(RenderService.get(query, "ss", "1"));
+					final long iterations = Long.parseLong(RenderService.get(query, "iterations", null));
+					final String format = RenderService.get(query, "format", "png");
+					final int priority = Integer.parseInt(RenderService.get(query, "priority", "0"));
+					if ((width <= 0) || (height <= 0) || (ss <= 0) || (iterations <= 0)) {
+						throw new IllegalArgumentException("width, height, ss and iterations must be positive");
+					}
+					if (((double) width * height * ss * ss) > MAX_CELLS) {
+						throw new IllegalArgumentException("width * height * ss * ss must be at most " + MAX_CELLS);
+					}
+					if (iterations > MAX_ITERATIONS) {
+						throw new IllegalArgumentException("iterations must be at most " + MAX_ITERATIONS);
+					}
+					if (!"png".equals(format) && !"histogram".equals(format)) {
+						throw new IllegalArgumentException("format must be png or histogram");
+					}
+
+					final FractalGenome genome = new Gson().fromJson(new InputStreamReader(exchange.getRequestBody(),
+					        "UTF-8"), FractalGenome.class);
+					if (genome == null) {
+						throw new IllegalArgumentException("no genome");
+					}
+					job = submit(genome, new Settings(width, height, ss, iterations, "png".equals(format)), priority);
+				} catch (final JsonParseException e) {
+					RenderService.respond(exchange, 400, "bad genome: " + e.getLocalizedMessage());
+					return;
+				} catch (final RuntimeException e) {
+					// a missing or malformed parameter, or a genome with missing fields
+					RenderService.respond(exchange, 400, String.valueOf(e.getLocalizedMessage()));
+					return;
+				}
+
+				exchange.getResponseHeaders().set("X-Render-Key", job.getKey());
+				if ("false".equals(RenderService.get(query, "wait", "true"))) {
+					exchange.getResponseHeaders().set("Location", "/result/" + job.getKey());
+					RenderService.respond(exchange, job.isDone() ? 200 : 202, job.getKey());
+					return;
+				}
+				RenderService.send(exchange, job.await());
+			} catch (final InterruptedException e) {
+				RenderService.respond(exchange, 503, "interrupted");
+			} catch (final IOException e) {
+				RenderService.respond(exchange, 500, String.valueOf(e.getLocalizedMessage()));
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * GET /result/[key], the result of a job submitted with wait=false
+	 */
+	private final class ResultHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				final String key = exchange.getRequestURI().getPath().substring("/result/".length());
+				if (!key.matches("[0-9a-f]{16}")) {
+					RenderService.respond(exchange, 404, "no such job");
+					return;
+				}
+				synchronized (jobs) {
+					if (jobs.containsKey(key)) {
+						RenderService.respond(exchange, 202, "not rendered yet");
+						return;
+					}
+					if (failed.containsKey(key)) {
+						RenderService.respond(exchange, 500, failed.get(key));
+						return;
+					}
+				}
+				for (final String extension : new String[] { ".png", ".histogram" }) {
+					final File file = new File(cacheDirectory, key + extension);
+					if (file.isFile()) {
+						RenderService.send(exchange, file);
+						return;
+					}
+				}
+				RenderService.respond(exchange, 404, "no such job");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * GET /status
+	 */
+	private final class StatusHandler implements HttpHandler {
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				final Job job = rendering;
+				RenderService.respond(exchange, 200, "queued " + queue.size() + "\nrendering "
+				        + ((job != null) ? job.key : "nothing") + "\nrendered " + rendered.get() + "\ncache hits "
+				        + cacheHits.get() + "\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private static final Map<String, String> query(final HttpExchange exchange) throws UnsupportedEncodingException {
+		final Map<String, String> query = new HashMap<String, String>();
+		final String raw = exchange.getRequestURI().getRawQuery();
+		if (raw != null) {
+			for (final String pair : raw.split("&")) {
+				final int equals = pair.indexOf('=');
+				if (equals > 0) {
+					query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+					        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+				}
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * returns the parameter, or the default if it's missing. A missing parameter without a default
+	 * throws an IllegalArgumentException
+	 */
+	private static final String get(final Map<String, String> query, final String name, final String otherwise) {
+		final String value = query.get(name);
+		if (value != null) {
+			return value;
+		}
+		if (otherwise == null) {
+			throw new IllegalArgumentException("missing " + name);
+		}
+		return otherwise;
+	}
+
+	private static final void respond(final HttpExchange exchange, final int status, final String message)
+	        throws IOException {
+		final byte[] body = message.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private static final void send(final HttpExchange exchange, final File file) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type",
+		        file.getName().endsWith(".png") ? "image/png" : "application/octet-stream");
+		exchange.sendResponseHeaders(200, file.length());
+		final InputStream in = new FileInputStream(file);
+		try {
+			final OutputStream out = exchange.getResponseBody();
+			final byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
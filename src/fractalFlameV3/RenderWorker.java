@@ -0,0 +1,85 @@
+package fractalFlameV3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.google.gson.Gson;
+
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.DeterministicRender;
+import fractalFlameV3.fractalThread.RenderScheduler;
+
+/**
+ * A worker process for DistributedRender, which starts it and talks to it over its stdin and
+ * stdout. The worker reads the render first, as DistributedRender's Worker.play() sends it, then
+ * plays the chunks of units it's sent one at a time, each into an empty histogram with a
+ * DeterministicRender, and writes each chunk's histogram back as Histogram.write() writes it.
+ * Anything else the worker prints goes to stderr, so stdout only ever holds results.
+ *
+ * The histogram tracks its cells, so only the cells a chunk has landed in are written and then
+ * zeroed for the next chunk, rather than every cell of the histogram.
+ *
+ * A chunk is sent as its number and its first and last (exclusive) unit, and a negative chunk
+ * number tells the worker to exit. A result is sent as the chunk number, the length of the
+ * histogram in bytes and the histogram.
+ *
+ * usage: RenderWorker [threads]
+ *
+ * @author aaron
+ *
+ */
+public final class RenderWorker {
+
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+		        FileDescriptor.out), 1 << 16));
+		System.setOut(System.err);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+
+		final int threads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime()
+		        .availableProcessors();
+
+		final byte[] json = new byte[in.readInt()];
+		in.readFully(json);
+		final FractalGenome genome = new Gson().fromJson(new String(json, "UTF-8"), FractalGenome.class);
+		final int swid = in.readInt();
+		final int shei = in.readInt();
+		final int ss = in.readInt();
+		final long iterations = in.readLong();
+		FastMath.setFast(in.readBoolean());
+
+		final GenomeSnapshot snapshot = new GenomeSnapshot(genome);
+		final Histogram h = new Histogram(swid, shei, ss, Render.accumulatorType(swid, shei, ss));
+		h.setCamera(snapshot);
+		h.trackCells();
+		final RenderScheduler scheduler = new RenderScheduler(threads, new BlockRandom(System.nanoTime()));
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+		int chunk;
+		while ((chunk = in.readInt()) >= 0) {
+			final long first = in.readLong();
+			final long last = in.readLong();
+
+			h.reset();
+			final DeterministicRender render = new DeterministicRender(snapshot, h, iterations, true, first, last);
+			scheduler.setTarget(render);
+			scheduler.resume();
+			render.await();
+			scheduler.pause();
+
+			result.reset();
+			h.write(result);
+			out.writeInt(chunk);
+			out.writeInt(result.size());
+			result.writeTo(out);
+			out.flush();
+		}
+	}
+}
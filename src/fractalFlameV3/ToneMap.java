@@ -0,0 +1,150 @@
+package fractalFlameV3;
+
+/**
+ * Turns a downsampled pixel of the histogram into a color, using lookup tables so no log or pow has
+ * to be calculated per pixel. The tables are only rebuilt when maxA or one of the parameters
+ * change.
+ *
+ * A pixel with the summed count 'a' has the log density alpha = log(a) / log(maxA), and each of its
+ * averaged color channels c becomes:
+ *
+ * (vibrancy * brightness * alpha^(1 / gamma) * c) + ((1 - vibrancy) * (brightness * alpha *
+ * c)^(1 / gamma))
+ *
+ * so the vibrancy picks between applying gamma to the density alone, which keeps colors saturated,
+ * and applying it to each channel, which washes bright areas out towards white.
+ *
+ * @author aaron
+ *
+ */
+public final class ToneMap {
+	/**
+	 * the density tables are indexed by the exponent and top MANTISSA_BITS bits of the mantissa of
+	 * the summed count, so every count below 2^(MANTISSA_BITS + 1) has its own entry and larger
+	 * counts share an entry with counts within 1 / 2^MANTISSA_BITS of them
+	 */
+	private static final int	MANTISSA_BITS	  = 8;
+
+	private static final int	SHIFT	          = 52 - MANTISSA_BITS;
+
+	private static final long	ONE	              = Double.doubleToRawLongBits(1.0) >>> SHIFT;
+
+	/**
+	 * number of steps in the gamma table, which covers [0, 1]
+	 */
+	private static final int	GAMMA_STEPS	      = 4096;
+
+	private double	            logMaxA	          = Double.NaN;
+	private double	            gamma	          = Double.NaN;
+	private double	            brightness	      = Double.NaN;
+	private double	            vibrancy	      = Double.NaN;
+
+	/**
+	 * brightness * alpha^(1 / gamma) for each density
+	 */
+	private double[]	        scale	          = new double[1];
+
+	/**
+	 * brightness * alpha for each density
+	 */
+	private double[]	        linear	          = new double[1];
+
+	/**
+	 * x^(1 / gamma) for x = [0, 1] in GAMMA_STEPS steps
+	 */
+	private final double[]	    gammaTable	      = new double[ToneMap.GAMMA_STEPS + 1];
+
+	/**
+	 * returns the index into the density tables of the summed count a, which must be at least 1
+	 */
+	private static final int index(final double a) {
+		return (int) ((Double.doubleToRawLongBits(a) >>> ToneMap.SHIFT) - ToneMap.ONE);
+	}
+
+	/**
+	 * returns the smallest summed count that has the index i
+	 */
+	private static final double density(final int i) {
+		return Double.longBitsToDouble((i + ToneMap.ONE) << ToneMap.SHIFT);
+	}
+
+	/**
+	 * rebuilds the tables if any of the parameters have changed since they were last built
+	 *
+	 * @param logMaxA
+	 *            log of the largest summed count on the screen
+	 * @return true if the tables were rebuilt
+	 */
+	public final boolean prepare(final double logMaxA, final double gamma, final double brightness,
+	        final double vibrancy) {
+		if ((logMaxA == this.logMaxA) && (gamma == this.gamma) && (brightness == this.brightness)
+		        && (vibrancy == this.vibrancy)) {
+			return false;
+		}
+
+		if (gamma != this.gamma) {
+			for (int i = 0; i <= ToneMap.GAMMA_STEPS; i++) {
+				gammaTable[i] = Math.pow((double) i / ToneMap.GAMMA_STEPS, 1.0 / gamma);
+			}
+		}
+
+		final int size = (logMaxA > 0) ? ToneMap.index(Math.exp(logMaxA)) + 2 : 1;
+		if (scale.length != size) {
+			scale = new double[size];
+			linear = new double[size];
+		}
+		for (int i = 0; i < size; i++) {
+			// a screen where no pixel has more than one sample is drawn at full density
+			final double alpha = (logMaxA > 0) ? Utils.min(Math.log(ToneMap.density(i)) / logMaxA, 1) : 1;
+			scale[i] = brightness * Math.pow(alpha, 1.0 / gamma);
+			linear[i] = brightness * alpha;
+		}
+
+		this.logMaxA = logMaxA;
+		this.gamma = gamma;
+		this.brightness = brightness;
+		this.vibrancy = vibrancy;
+		return true;
+	}
+
+	/**
+	 * returns the ARGB color of a pixel
+	 *
+	 * @param r
+	 *            average red of the pixel
+	 * @param g
+	 *            average green of the pixel
+	 * @param b
+	 *            average blue of the pixel
+	 * @param a
+	 *            summed count of the pixel, a density estimated count can be under 1
+	 */
+	public final int color(final double r, final double g, final double b, final double a) {
+		// counts above maxA can happen when the tables are a little out of date
+		final int i = (a > 1) ? Utils.min(ToneMap.index(a), scale.length - 1) : 0;
+		final double s = scale[i];
+		final double l = linear[i];
+
+		return 0xFF000000 | (channel(r, s, l) << 16) | (channel(g, s, l) << 8) | (channel(b, s, l) << 0);
+	}
+
+	/**
+	 * returns the tone mapped density of a pixel with the summed count a, brightness * alpha^(1 /
+	 * gamma), in levels of 0 to 255. Unlike the color it only depends on the count, so it settles
+	 * down as the render converges
+	 */
+	public final int level(final double a) {
+		final int i = (a > 1) ? Utils.min(ToneMap.index(a), scale.length - 1) : 0;
+		final int out = (a > 0) ? (int) (scale[i] * 0xFF) : 0;
+		return (out < 0xFF) ? out : 0xFF;
+	}
+
+	private final int channel(final double c, final double s, final double l) {
+		double v = vibrancy * s * c;
+		if (vibrancy < 1) {
+			v += (1 - vibrancy) * gammaTable[(int) (Utils.min(l * c, 1) * ToneMap.GAMMA_STEPS)];
+		}
+		final int out = (int) (v * 0xFF);
+		return (out < 0xFF) ? out : 0xFF;
+	}
+}
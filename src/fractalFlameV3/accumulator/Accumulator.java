@@ -0,0 +1,63 @@
+package fractalFlameV3.accumulator;
+
+/**
+ * An Accumulator stores the cells of a Histogram. Each cell holds an averaged red, green and blue
+ * color and the number of samples that have landed in it. Cells are addressed by their index in
+ * the histogram, index(x, y) = x + (y * hwid).
+ *
+ * All of the methods that change the cells must be safe to call from several FractalThreads at
+ * once, how that is done is up to the implementation.
+ *
+ * @author aaron
+ *
+ */
+public interface Accumulator {
+	/**
+	 * averages the color (r, g, b) into the cell at 'index' and increments its count
+	 */
+	public void hit(int index, double r, double g, double b);
+
+	/**
+	 * merges a batch of buffered cells into the accumulator. Entry i of the batch belongs to the
+	 * cell indices[i], and its color and count are stored in cells[4 * i] to cells[(4 * i) + 3].
+	 * The color of each entry is folded in as if it were a single hit.
+	 *
+	 * @param indices
+	 *            cell index of each entry
+	 * @param cells
+	 *            r, g, b and count of each entry
+	 * @param n
+	 *            number of entries in the batch
+	 */
+	public void merge(int[] indices, double[] cells, int n);
+
+	public double r(int index);
+
+	public double g(int index);
+
+	public double b(int index);
+
+	public double count(int index);
+
+	/**
+	 * total number of samples that have landed in the accumulator since it was last reset
+	 */
+	public long samples();
+
+	/**
+	 * zeros the cells indices[0] to indices[n - 1], and takes their samples off samples(). It's
+	 * cheaper than reset() when only a few cells have been hit
+	 */
+	public void clear(int[] indices, int n);
+
+	/**
+	 * zeros every cell
+	 */
+	public void reset();
+
+	/**
+	 * releases anything the accumulator holds that the garbage collector doesn't, such as a
+	 * MappedAccumulator's mappings. The accumulator mustn't be used afterwards
+	 */
+	public void close();
+}
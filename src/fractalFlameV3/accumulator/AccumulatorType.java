@@ -0,0 +1,93 @@
+package fractalFlameV3.accumulator;
+
+/**
+ * the kinds of Accumulator a Histogram can be backed by
+ *
+ * @author aaron
+ *
+ */
+public enum AccumulatorType {
+	/**
+	 * a single double[], every update synchronizes on the whole accumulator
+	 */
+	SYNCHRONIZED(4 * 8, true) {
+		@Override
+		public Accumulator create(final int hwid, final int hhei) {
+			return new SynchronizedAccumulator(hwid, hhei);
+		}
+	},
+
+	/**
+	 * the histogram is split into tiles that each have their own lock, so threads hitting
+	 * different tiles never contend
+	 */
+	STRIPED(4 * 8, true) {
+		@Override
+		public Accumulator create(final int hwid, final int hhei) {
+			return new StripedAccumulator(hwid, hhei);
+		}
+	},
+
+	/**
+	 * the histogram is kept off the heap in a memory mapped temporary file
+	 */
+	MAPPED(4 * 8, false) {
+		@Override
+		public Accumulator create(final int hwid, final int hhei) {
+			return new MappedAccumulator(hwid, hhei);
+		}
+	},
+
+	/**
+	 * float colors and an int count, half the memory of SYNCHRONIZED
+	 */
+	FLOAT((3 * 4) + 4, true) {
+		@Override
+		public Accumulator create(final int hwid, final int hhei) {
+			return new FloatAccumulator(hwid, hhei);
+		}
+	},
+
+	/**
+	 * 10 bit fixed point colors and a 34 bit count packed into a long, a quarter of the memory of
+	 * SYNCHRONIZED, updated lock free
+	 */
+	FIXED_POINT(8, true) {
+		@Override
+		public Accumulator create(final int hwid, final int hhei) {
+			return new FixedPointAccumulator(hwid, hhei);
+		}
+	};
+
+	/**
+	 * bytes used to store each cell of the histogram
+	 */
+	public final int	    bytesPerCell;
+
+	/**
+	 * true if the cells are stored on the Java heap
+	 */
+	public final boolean	onHeap;
+
+	private AccumulatorType(final int bytesPerCell, final boolean onHeap) {
+		this.bytesPerCell = bytesPerCell;
+		this.onHeap = onHeap;
+	}
+
+	/**
+	 * creates a new, empty accumulator of this type
+	 *
+	 * @param hwid
+	 *            width of the histogram
+	 * @param hhei
+	 *            height of the histogram
+	 */
+	public abstract Accumulator create(int hwid, int hhei);
+
+	/**
+	 * returns the type after this one, wrapping around to the first type
+	 */
+	public AccumulatorType next() {
+		return values()[(ordinal() + 1) % values().length];
+	}
+}
@@ -0,0 +1,172 @@
+package fractalFlameV3.accumulator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Packs each cell into a single long: three 10 bit fixed point color channels and a 34 bit count,
+ * which takes a quarter of the memory of a SynchronizedAccumulator. A 10 bit channel is 4 times as
+ * fine as the 8 bit channel it ends up in, and a 34 bit count holds about 17 billion samples before
+ * it saturates.
+ *
+ * Because a whole cell fits in a long, cells are updated without locking, using compare and set.
+ *
+ * @author aaron
+ *
+ */
+public final class FixedPointAccumulator implements Accumulator {
+	private static final int	   COLOR_BITS	= 10;
+
+	private static final long	   COLOR_MAX	= (1L << COLOR_BITS) - 1;
+
+	private static final int	   COUNT_BITS	= 64 - (3 * COLOR_BITS);
+
+	private static final long	   COUNT_MAX	= (1L << COUNT_BITS) - 1;
+
+	/**
+	 * bit offsets of each field in a packed cell
+	 */
+	private static final int	   R_SHIFT	    = COUNT_BITS + (2 * COLOR_BITS);
+	private static final int	   G_SHIFT	    = COUNT_BITS + COLOR_BITS;
+	private static final int	   B_SHIFT	    = COUNT_BITS;
+
+	/**
+	 * runs of (1 << SAMPLES_RUN_BITS) consecutive cells share a sample counter, and the counters
+	 * are spread SAMPLES_STRIDE longs apart so they don't share cache lines
+	 */
+	private static final int	   SAMPLES_RUN_BITS	= 6;
+	private static final int	   SAMPLES_COUNTERS	= 64;
+	private static final int	   SAMPLES_STRIDE	= 8;
+
+	/**
+	 * packed cells, cell = (r << R_SHIFT) | (g << G_SHIFT) | (b << B_SHIFT) | count
+	 */
+	private final AtomicLongArray	cells;
+
+	private final AtomicLongArray	samples	    = new AtomicLongArray(SAMPLES_COUNTERS * SAMPLES_STRIDE);
+
+	public FixedPointAccumulator(final int hwid, final int hhei) {
+		cells = new AtomicLongArray(hwid * hhei);
+	}
+
+	/**
+	 * converts a color between 0 and 1 to fixed point
+	 */
+	private static final long toFixed(final double c) {
+		final long f = Math.round(c * COLOR_MAX);
+		return (f < 0) ? 0 : ((f > COLOR_MAX) ? COLOR_MAX : f);
+	}
+
+	private static final double toDouble(final long cell, final int shift) {
+		return ((cell >>> shift) & COLOR_MAX) / (double) COLOR_MAX;
+	}
+
+	/**
+	 * averages a fixed point channel with a fixed point color, rounding to nearest
+	 */
+	private static final long average(final long cell, final int shift, final long f) {
+		return ((((cell >>> shift) & COLOR_MAX) + f) + 1) >>> 1;
+	}
+
+	private static final long pack(final long r, final long g, final long b, final long count) {
+		return (r << R_SHIFT) | (g << G_SHIFT) | (b << B_SHIFT) | ((count > COUNT_MAX) ? COUNT_MAX : count);
+	}
+
+	private final void addSamples(final int index, final long n) {
+		samples.addAndGet(((index >>> SAMPLES_RUN_BITS) & (SAMPLES_COUNTERS - 1)) * SAMPLES_STRIDE, n);
+	}
+
+	@Override
+	public final void hit(final int index, final double r, final double g, final double b) {
+		final long fr = toFixed(r);
+		final long fg = toFixed(g);
+		final long fb = toFixed(b);
+
+		long cell;
+		long updated;
+		do {
+			cell = cells.get(index);
+			updated = pack(average(cell, R_SHIFT, fr), average(cell, G_SHIFT, fg), average(cell, B_SHIFT, fb),
+			        (cell & COUNT_MAX) + 1);
+		} while (!cells.compareAndSet(index, cell, updated));
+
+		addSamples(index, 1);
+	}
+
+	@Override
+	public final void merge(final int[] indices, final double[] cells, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int index = indices[e];
+			final int c = 4 * e;
+			final long fr = toFixed(cells[c + 0]);
+			final long fg = toFixed(cells[c + 1]);
+			final long fb = toFixed(cells[c + 2]);
+			final long count = (long) cells[c + 3];
+
+			long cell;
+			long updated;
+			do {
+				cell = this.cells.get(index);
+				if ((cell & COUNT_MAX) == 0) {
+					updated = pack(fr, fg, fb, count);
+				} else {
+					updated = pack(average(cell, R_SHIFT, fr), average(cell, G_SHIFT, fg),
+					        average(cell, B_SHIFT, fb), (cell & COUNT_MAX) + count);
+				}
+			} while (!this.cells.compareAndSet(index, cell, updated));
+
+			addSamples(index, count);
+		}
+	}
+
+	@Override
+	public final double r(final int index) {
+		return toDouble(cells.get(index), R_SHIFT);
+	}
+
+	@Override
+	public final double g(final int index) {
+		return toDouble(cells.get(index), G_SHIFT);
+	}
+
+	@Override
+	public final double b(final int index) {
+		return toDouble(cells.get(index), B_SHIFT);
+	}
+
+	@Override
+	public final double count(final int index) {
+		return cells.get(index) & COUNT_MAX;
+	}
+
+	@Override
+	public final long samples() {
+		long total = 0;
+		for (int i = 0; i < SAMPLES_COUNTERS; i++) {
+			total += samples.get(i * SAMPLES_STRIDE);
+		}
+		return total;
+	}
+
+	@Override
+	public final void clear(final int[] indices, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int index = indices[e];
+			addSamples(index, -(cells.getAndSet(index, 0) & COUNT_MAX));
+		}
+	}
+
+	@Override
+	public final void reset() {
+		for (int i = 0; i < cells.length(); i++) {
+			cells.set(i, 0);
+		}
+		for (int i = 0; i < samples.length(); i++) {
+			samples.set(i, 0);
+		}
+	}
+
+	@Override
+	public final void close() {
+		// the cells are on the heap
+	}
+}
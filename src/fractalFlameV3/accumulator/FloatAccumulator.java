@@ -0,0 +1,150 @@
+package fractalFlameV3.accumulator;
+
+/**
+ * Stores the color of each cell as three floats and its count as an int, which takes half the
+ * memory of a SynchronizedAccumulator. Colors are averages between 0 and 1, so a float keeps far
+ * more precision than the final 8 bit image needs.
+ *
+ * Updates are synchronized on one of a fixed set of locks, picked by which run of cells the index
+ * falls in.
+ *
+ * @author aaron
+ *
+ */
+public final class FloatAccumulator implements Accumulator {
+	/**
+	 * runs of (1 << LOCK_RUN_BITS) consecutive cells share a lock
+	 */
+	private static final int	LOCK_RUN_BITS	= 6;
+
+	private static final int	LOCKS	      = 1 << 12;
+
+	/**
+	 * color of each cell, addressed using the formula: color(index, color) = (3 * index) + color
+	 * where color = [0, 2]
+	 */
+	private final float[]	    colors;
+
+	/**
+	 * number of samples in each cell
+	 */
+	private final int[]	        counts;
+
+	private final Object[]	    locks	      = new Object[LOCKS];
+
+	private final long[]	    samples	      = new long[LOCKS];
+
+	public FloatAccumulator(final int hwid, final int hhei) {
+		colors = new float[hwid * hhei * 3];
+		counts = new int[hwid * hhei];
+
+		for (int i = 0; i < LOCKS; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	@Override
+	public final void hit(final int index, final double r, final double g, final double b) {
+		final int i = 3 * index;
+		final int l = (index >>> LOCK_RUN_BITS) & (LOCKS - 1);
+
+		synchronized (locks[l]) {
+			colors[i + 0] = (float) ((colors[i + 0] + r) / 2.0);
+			colors[i + 1] = (float) ((colors[i + 1] + g) / 2.0);
+			colors[i + 2] = (float) ((colors[i + 2] + b) / 2.0);
+			counts[index]++;
+			samples[l]++;
+		}
+	}
+
+	@Override
+	public final void merge(final int[] indices, final double[] cells, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int index = indices[e];
+			final int i = 3 * index;
+			final int l = (index >>> LOCK_RUN_BITS) & (LOCKS - 1);
+			final int cell = 4 * e;
+
+			synchronized (locks[l]) {
+				if (counts[index] == 0) {
+					colors[i + 0] = (float) cells[cell + 0];
+					colors[i + 1] = (float) cells[cell + 1];
+					colors[i + 2] = (float) cells[cell + 2];
+				} else {
+					colors[i + 0] = (float) ((colors[i + 0] + cells[cell + 0]) / 2.0);
+					colors[i + 1] = (float) ((colors[i + 1] + cells[cell + 1]) / 2.0);
+					colors[i + 2] = (float) ((colors[i + 2] + cells[cell + 2]) / 2.0);
+				}
+				counts[index] += (int) cells[cell + 3];
+				samples[l] += (long) cells[cell + 3];
+			}
+		}
+	}
+
+	@Override
+	public final double r(final int index) {
+		return colors[(3 * index) + 0];
+	}
+
+	@Override
+	public final double g(final int index) {
+		return colors[(3 * index) + 1];
+	}
+
+	@Override
+	public final double b(final int index) {
+		return colors[(3 * index) + 2];
+	}
+
+	@Override
+	public final double count(final int index) {
+		return counts[index];
+	}
+
+	@Override
+	public final long samples() {
+		long total = 0;
+		for (int l = 0; l < LOCKS; l++) {
+			synchronized (locks[l]) {
+				total += samples[l];
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public final void clear(final int[] indices, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int index = indices[e];
+			final int i = 3 * index;
+			final int l = (index >>> LOCK_RUN_BITS) & (LOCKS - 1);
+			synchronized (locks[l]) {
+				samples[l] -= counts[index];
+				colors[i + 0] = 0;
+				colors[i + 1] = 0;
+				colors[i + 2] = 0;
+				counts[index] = 0;
+			}
+		}
+	}
+
+	@Override
+	public final void reset() {
+		for (int l = 0; l < LOCKS; l++) {
+			synchronized (locks[l]) {
+				samples[l] = 0;
+			}
+		}
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = 0;
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+	}
+
+	@Override
+	public final void close() {
+		// the cells are on the heap
+	}
+}
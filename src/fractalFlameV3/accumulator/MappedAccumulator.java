@@ -0,0 +1,247 @@
+package fractalFlameV3.accumulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stores the histogram off the Java heap, in a temporary file that is memory mapped. This lets
+ * heavily supersampled renders use a histogram much larger than the heap, and keeps the garbage
+ * collector from ever having to deal with it. The file is mapped in chunks because a single mapping
+ * can't be larger than 2GB.
+ *
+ * Updates are synchronized on one of a fixed set of locks, picked by which run of cells the index
+ * falls in, so threads hitting different parts of the histogram rarely contend.
+ *
+ * A mapping is only unmapped when its buffer is garbage collected, which for a buffer that's
+ * survived a while may not be for a long time, so close() unmaps the chunks straight away.
+ *
+ * @author aaron
+ *
+ */
+public final class MappedAccumulator implements Accumulator {
+	/**
+	 * each chunk holds (1 << CHUNK_BITS) cells, which is 1GB at 32 bytes a cell
+	 */
+	private static final int	       CHUNK_BITS	= 25;
+
+	private static final int	       CHUNK_MASK	= (1 << CHUNK_BITS) - 1;
+
+	/**
+	 * bytes used by each cell, r, g, b and count are each a double
+	 */
+	private static final int	       CELL_BYTES	= 4 * 8;
+
+	/**
+	 * runs of (1 << LOCK_RUN_BITS) consecutive cells share a lock
+	 */
+	private static final int	       LOCK_RUN_BITS	= 6;
+
+	private static final int	       LOCKS	    = 1 << 12;
+
+	/**
+	 * chunks[index >> CHUNK_BITS] holds the cell at index, at (4 * (index & CHUNK_MASK)) + color
+	 */
+	private final DoubleBuffer[]	   chunks;
+
+	/**
+	 * the mapping each chunk is a view of, null once it's been unmapped
+	 */
+	private final MappedByteBuffer[]	mappings;
+
+	private final Object[]	           locks	    = new Object[LOCKS];
+
+	private final long[]	           samples	    = new long[LOCKS];
+
+	public MappedAccumulator(final int hwid, final int hhei) {
+		final long cells = (long) hwid * hhei;
+		chunks = new DoubleBuffer[(int) ((cells + CHUNK_MASK) >> CHUNK_BITS)];
+		mappings = new MappedByteBuffer[chunks.length];
+
+		for (int i = 0; i < LOCKS; i++) {
+			locks[i] = new Object();
+		}
+
+		try {
+			final File file = File.createTempFile("histogram", ".bin");
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(cells * CELL_BYTES);
+			final FileChannel channel = raf.getChannel();
+
+			for (int i = 0; i < chunks.length; i++) {
+				final long start = ((long) i << CHUNK_BITS) * CELL_BYTES;
+				final long size = Math.min(((long) 1 << CHUNK_BITS) * CELL_BYTES, (cells * CELL_BYTES) - start);
+				mappings[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+				chunks[i] = mappings[i].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+
+			// the mappings stay valid after the file is closed, and on most systems after it is
+			// deleted too, so the file never outlives the accumulator
+			channel.close();
+			raf.close();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException("could not map a " + (cells * CELL_BYTES) + " byte histogram", e);
+		}
+	}
+
+	@Override
+	public final void hit(final int index, final double r, final double g, final double b) {
+		final DoubleBuffer chunk = chunks[index >>> CHUNK_BITS];
+		final int i = 4 * (index & CHUNK_MASK);
+		final int l = (index >>> LOCK_RUN_BITS) & (LOCKS - 1);
+
+		synchronized (locks[l]) {
+			chunk.put(i + 0, (chunk.get(i + 0) + r) / 2.0);
+			chunk.put(i + 1, (chunk.get(i + 1) + g) / 2.0);
+			chunk.put(i + 2, (chunk.get(i + 2) + b) / 2.0);
+			chunk.put(i + 3, chunk.get(i + 3) + 1);
+			samples[l]++;
+		}
+	}
+
+	@Override
+	public final void merge(final int[] indices, final double[] cells, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int index = indices[e];
+			final DoubleBuffer chunk = chunks[index >>> CHUNK_BITS];
+			final int i = 4 * (index & CHUNK_MASK);
+			final int l = (index >>> LOCK_RUN_BITS) & (LOCKS - 1);
+			final int cell = 4 * e;
+
+			synchronized (locks[l]) {
+				if (chunk.get(i + 3) == 0) {
+					chunk.put(i + 0, cells[cell + 0]);
+					chunk.put(i + 1, cells[cell + 1]);
+					chunk.put(i + 2, cells[cell + 2]);
+				} else {
+					chunk.put(i + 0, (chunk.get(i + 0) + cells[cell + 0]) / 2.0);
+					chunk.put(i + 1, (chunk.get(i + 1) + cells[cell + 1]) / 2.0);
+					chunk.put(i + 2, (chunk.get(i + 2) + cells[cell + 2]) / 2.0);
+				}
+				chunk.put(i + 3, chunk.get(i + 3) + cells[cell + 3]);
+				samples[l] += (long) cells[cell + 3];
+			}
+		}
+	}
+
+	@Override
+	public final double r(final int index) {
+		return chunks[index >>> CHUNK_BITS].get((4 * (index & CHUNK_MASK)) + 0);
+	}
+
+	@Override
+	public final double g(final int index) {
+		return chunks[index >>> CHUNK_BITS].get((4 * (index & CHUNK_MASK)) + 1);
+	}
+
+	@Override
+	public final double b(final int index) {
+		return chunks[index >>> CHUNK_BITS].get((4 * (index & CHUNK_MASK)) + 2);
+	}
+
+	@Override
+	public final double count(final int index) {
+		return chunks[index >>> CHUNK_BITS].get((4 * (index & CHUNK_MASK)) + 3);
+	}
+
+	@Override
+	public final long samples() {
+		long total = 0;
+		for (int l = 0; l < LOCKS; l++) {
+			synchronized (locks[l]) {
+				total += samples[l];
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public final void clear(final int[] indices, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int index = indices[e];
+			final DoubleBuffer chunk = chunks[index >>> CHUNK_BITS];
+			final int i = 4 * (index & CHUNK_MASK);
+			final int l = (index >>> LOCK_RUN_BITS) & (LOCKS - 1);
+
+			synchronized (locks[l]) {
+				samples[l] -= (long) chunk.get(i + 3);
+				chunk.put(i + 0, 0);
+				chunk.put(i + 1, 0);
+				chunk.put(i + 2, 0);
+				chunk.put(i + 3, 0);
+			}
+		}
+	}
+
+	@Override
+	public final void reset() {
+		for (int l = 0; l < LOCKS; l++) {
+			synchronized (locks[l]) {
+				samples[l] = 0;
+			}
+		}
+		for (final DoubleBuffer chunk : chunks) {
+			for (int i = 0; i < chunk.limit(); i++) {
+				chunk.put(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * unmaps every chunk. The chunks are dropped first, so using the accumulator afterwards throws
+	 * rather than touching memory that's been unmapped
+	 */
+	@Override
+	public final void close() {
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = null;
+			if (mappings[i] != null) {
+				MappedAccumulator.unmap(mappings[i]);
+				mappings[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * unmaps buffer now rather than when it's garbage collected. There's no public way to, so it's
+	 * done with sun.misc.Unsafe.invokeCleaner() on Java 9 and later, and with the buffer's cleaner
+	 * on Java 8. If neither is there the mapping is left to the garbage collector
+	 */
+	private static final void unmap(final MappedByteBuffer buffer) {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (final NoSuchMethodException e) {
+				invokeCleaner = null;
+			}
+			if (invokeCleaner != null) {
+				final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} else {
+				final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				final Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (final ReflectiveOperationException e) {
+			System.out.println("can't unmap the histogram, " + e);
+		} catch (final RuntimeException e) {
+			System.out.println("can't unmap the histogram, " + e);
+		}
+	}
+}
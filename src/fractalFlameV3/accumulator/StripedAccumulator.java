@@ -0,0 +1,172 @@
+package fractalFlameV3.accumulator;
+
+/**
+ * Splits the histogram into square tiles. Each tile is stored in its own array, and that array is
+ * also the lock for the tile, so FractalThreads only contend with each other when they hit the same
+ * tile at the same time. Keeping each tile in its own array also keeps the cells of a tile close
+ * together in memory, and keeps threads working on different tiles off each other's cache lines.
+ *
+ * @author aaron
+ *
+ */
+public final class StripedAccumulator implements Accumulator {
+	/**
+	 * tiles are (1 << TILE_BITS) cells wide and tall
+	 */
+	private static final int	TILE_BITS	= 6;
+
+	private static final int	TILE	  = 1 << TILE_BITS;
+
+	private static final int	TILE_MASK	= TILE - 1;
+
+	/**
+	 * the sample count of a tile is stored in the slot after its last cell
+	 */
+	private static final int	SAMPLES	  = TILE * TILE * 4;
+
+	/**
+	 * width of the histogram
+	 */
+	private final int	     hwid;
+
+	/**
+	 * number of tiles across the histogram
+	 */
+	private final int	     tilesX;
+
+	/**
+	 * tiles[tile][cell(x, y, color)], where tile = (x / TILE) + ((y / TILE) * tilesX) and cell(x,
+	 * y, color) = (4 * ((x % TILE) + ((y % TILE) * TILE))) + color
+	 */
+	private final double[][]	tiles;
+
+	public StripedAccumulator(final int hwid, final int hhei) {
+		this.hwid = hwid;
+		tilesX = (hwid + TILE_MASK) >> TILE_BITS;
+		final int tilesY = (hhei + TILE_MASK) >> TILE_BITS;
+
+		tiles = new double[tilesX * tilesY][SAMPLES + 1];
+	}
+
+	private final double[] tile(final int index) {
+		final int x = index % hwid;
+		final int y = index / hwid;
+		return tiles[(x >> TILE_BITS) + ((y >> TILE_BITS) * tilesX)];
+	}
+
+	private final int cell(final int index) {
+		final int x = index % hwid;
+		final int y = index / hwid;
+		return 4 * ((x & TILE_MASK) + ((y & TILE_MASK) << TILE_BITS));
+	}
+
+	@Override
+	public final void hit(final int index, final double r, final double g, final double b) {
+		final double[] t = tile(index);
+		final int i = cell(index);
+
+		synchronized (t) {
+			t[i + 0] += r;
+			t[i + 1] += g;
+			t[i + 2] += b;
+
+			t[i + 0] /= 2.0;
+			t[i + 1] /= 2.0;
+			t[i + 2] /= 2.0;
+
+			t[i + 3]++;
+			t[SAMPLES]++;
+		}
+	}
+
+	@Override
+	public final void merge(final int[] indices, final double[] cells, final int n) {
+		int e = 0;
+		while (e < n) {
+			final double[] t = tile(indices[e]);
+
+			// merge every consecutive entry that lands in the same tile while holding its lock
+			synchronized (t) {
+				do {
+					final int i = cell(indices[e]);
+					final int cell = 4 * e;
+
+					if (t[i + 3] == 0) {
+						t[i + 0] = cells[cell + 0];
+						t[i + 1] = cells[cell + 1];
+						t[i + 2] = cells[cell + 2];
+					} else {
+						t[i + 0] = (t[i + 0] + cells[cell + 0]) / 2.0;
+						t[i + 1] = (t[i + 1] + cells[cell + 1]) / 2.0;
+						t[i + 2] = (t[i + 2] + cells[cell + 2]) / 2.0;
+					}
+					t[i + 3] += cells[cell + 3];
+					t[SAMPLES] += cells[cell + 3];
+					e++;
+				} while ((e < n) && (tile(indices[e]) == t));
+			}
+		}
+	}
+
+	@Override
+	public final double r(final int index) {
+		return tile(index)[cell(index) + 0];
+	}
+
+	@Override
+	public final double g(final int index) {
+		return tile(index)[cell(index) + 1];
+	}
+
+	@Override
+	public final double b(final int index) {
+		return tile(index)[cell(index) + 2];
+	}
+
+	@Override
+	public final double count(final int index) {
+		return tile(index)[cell(index) + 3];
+	}
+
+	@Override
+	public final long samples() {
+		long samples = 0;
+		for (final double[] t : tiles) {
+			synchronized (t) {
+				samples += (long) t[SAMPLES];
+			}
+		}
+		return samples;
+	}
+
+	@Override
+	public final void clear(final int[] indices, final int n) {
+		for (int e = 0; e < n; e++) {
+			final double[] t = tile(indices[e]);
+			final int i = cell(indices[e]);
+			synchronized (t) {
+				t[SAMPLES] -= t[i + 3];
+				t[i + 0] = 0;
+				t[i + 1] = 0;
+				t[i + 2] = 0;
+				t[i + 3] = 0;
+			}
+		}
+	}
+
+	@Override
+	public final void reset() {
+		for (final double[] t : tiles) {
+			synchronized (t) {
+				for (int i = 0; i < t.length; i++) {
+					t[i] = 0;
+				}
+			}
+		}
+	}
+
+	@Override
+	public final void close() {
+		// the cells are on the heap
+	}
+}
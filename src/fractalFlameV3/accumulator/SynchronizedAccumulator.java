@@ -0,0 +1,108 @@
+package fractalFlameV3.accumulator;
+
+/**
+ * Stores every cell in one flat double[], and synchronizes on the whole accumulator for every
+ * update. This is how the Histogram has always worked.
+ *
+ * @author aaron
+ *
+ */
+public final class SynchronizedAccumulator implements Accumulator {
+	/**
+	 * flat array that holds the histogram, addressed using the formula: cell(index, color) = (4 *
+	 * index) + color where color = [0, 3]
+	 */
+	private final double[]	h;
+
+	private long	       samples	= 0;
+
+	public SynchronizedAccumulator(final int hwid, final int hhei) {
+		h = new double[hwid * hhei * 4];
+	}
+
+	@Override
+	public final synchronized void hit(final int index, final double r, final double g, final double b) {
+		final int i = 4 * index;
+
+		h[i + 0] += r;
+		h[i + 1] += g;
+		h[i + 2] += b;
+
+		h[i + 0] /= 2.0;
+		h[i + 1] /= 2.0;
+		h[i + 2] /= 2.0;
+
+		h[i + 3]++;
+		samples++;
+	}
+
+	@Override
+	public final synchronized void merge(final int[] indices, final double[] cells, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int i = 4 * indices[e];
+			final int cell = 4 * e;
+
+			if (h[i + 3] == 0) {
+				h[i + 0] = cells[cell + 0];
+				h[i + 1] = cells[cell + 1];
+				h[i + 2] = cells[cell + 2];
+			} else {
+				h[i + 0] = (h[i + 0] + cells[cell + 0]) / 2.0;
+				h[i + 1] = (h[i + 1] + cells[cell + 1]) / 2.0;
+				h[i + 2] = (h[i + 2] + cells[cell + 2]) / 2.0;
+			}
+			h[i + 3] += cells[cell + 3];
+			samples += (long) cells[cell + 3];
+		}
+	}
+
+	@Override
+	public final double r(final int index) {
+		return h[(4 * index) + 0];
+	}
+
+	@Override
+	public final double g(final int index) {
+		return h[(4 * index) + 1];
+	}
+
+	@Override
+	public final double b(final int index) {
+		return h[(4 * index) + 2];
+	}
+
+	@Override
+	public final double count(final int index) {
+		return h[(4 * index) + 3];
+	}
+
+	@Override
+	public final synchronized long samples() {
+		return samples;
+	}
+
+	@Override
+	public final synchronized void clear(final int[] indices, final int n) {
+		for (int e = 0; e < n; e++) {
+			final int i = 4 * indices[e];
+			samples -= (long) h[i + 3];
+			h[i + 0] = 0;
+			h[i + 1] = 0;
+			h[i + 2] = 0;
+			h[i + 3] = 0;
+		}
+	}
+
+	@Override
+	public final synchronized void reset() {
+		for (int i = 0; i < h.length; i++) {
+			h[i] = 0;
+		}
+		samples = 0;
+	}
+
+	@Override
+	public final void close() {
+		// the cells are on the heap
+	}
+}
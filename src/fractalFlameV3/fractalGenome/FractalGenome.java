@@ -9,6 +9,7 @@ import java.util.concurrent.ThreadLocalRandom;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import fractalFlameV3.BlockRandom;
 import fractalFlameV3.ColorSet;
 import fractalFlameV3.Utils;
 import fractalFlameV3.variations.Bent14;
@@ -72,6 +73,13 @@ public final class FractalGenome {
 
 	static public double	   gamma	            = 1;
 
+	/**
+	 * brightness and vibrancy of the tone mapping, see ToneMap. Like gamma they belong to the
+	 * display rather than the genome, so they aren't saved with it
+	 */
+	static public double	   brightness	        = 1;
+	static public double	   vibrancy	            = 1;
+
 	public FractalGenome(final int minAffineTransforms, final int maxAffineTransforms) {
 		cameraXOffset = 0;
 		cameraYOffset = 0;
@@ -117,6 +125,113 @@ public final class FractalGenome {
 		}
 	}
 
+	/**
+	 * returns a 64 bit hash of everything in the genome that decides where the chaos game's points
+	 * land and what color they are: the transforms, their probabilities and colors, the variations,
+	 * their weights and parameters and the toggles. Genomes that play the same game have the same
+	 * hash however they were made, copied or loaded. The camera isn't included.
+	 */
+	public long contentHash() {
+		long hash = nAffineTransformatioins;
+		for (final int p : affineProbabilities) {
+			hash = FractalGenome.mix(hash, p);
+		}
+		for (final double[][][] matrices : new double[][][][] { affineMatrices, finalTransformMatrices }) {
+			for (final double[][] matrix : matrices) {
+				for (final double[] row : matrix) {
+					for (final double v : row) {
+						hash = FractalGenome.mix(hash, Double.doubleToLongBits(v));
+					}
+				}
+			}
+		}
+		for (final ColorSet[] colors : new ColorSet[][] { affineColor, finalColor }) {
+			for (final ColorSet c : colors) {
+				hash = FractalGenome.mix(hash, Double.doubleToLongBits(c.r));
+				hash = FractalGenome.mix(hash, Double.doubleToLongBits(c.g));
+				hash = FractalGenome.mix(hash, Double.doubleToLongBits(c.b));
+			}
+		}
+		for (final int v : variations) {
+			hash = FractalGenome.mix(hash, v);
+		}
+		for (final double w : variationWeights) {
+			hash = FractalGenome.mix(hash, Double.doubleToLongBits(w));
+		}
+		for (final double[] row : variationParameters) {
+			for (final double v : row) {
+				hash = FractalGenome.mix(hash, Double.doubleToLongBits(v));
+			}
+		}
+		hash = FractalGenome.mix(hash, variationToggle ? 1 : 0);
+		return FractalGenome.mix(hash, finalTransformToggle ? 1 : 0);
+	}
+
+	/**
+	 * returns a 64 bit hash of everything in the genome that decides the image it renders to, its
+	 * contentHash() and the camera
+	 */
+	public long imageHash() {
+		long hash = contentHash();
+		hash = FractalGenome.mix(hash, Double.doubleToLongBits(cameraXOffset));
+		hash = FractalGenome.mix(hash, Double.doubleToLongBits(cameraYOffset));
+		hash = FractalGenome.mix(hash, Double.doubleToLongBits(cameraXShrink));
+		return FractalGenome.mix(hash, Double.doubleToLongBits(cameraYShrink));
+	}
+
+	/**
+	 * genomes are equal if they render to the same image, see imageHash()
+	 */
+	@Override
+	public boolean equals(final Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof FractalGenome)) {
+			return false;
+		}
+		final FractalGenome g = (FractalGenome) o;
+		return (nAffineTransformatioins == g.nAffineTransformatioins)
+		        && Arrays.equals(affineProbabilities, g.affineProbabilities)
+		        && Arrays.deepEquals(affineMatrices, g.affineMatrices)
+		        && Arrays.deepEquals(finalTransformMatrices, g.finalTransformMatrices)
+		        && FractalGenome.sameColors(affineColor, g.affineColor) && FractalGenome.sameColors(finalColor, g.finalColor)
+		        && variations.equals(g.variations) && Arrays.equals(variationWeights, g.variationWeights)
+		        && Arrays.deepEquals(variationParameters, g.variationParameters)
+		        && (variationToggle == g.variationToggle) && (finalTransformToggle == g.finalTransformToggle)
+		        && (Double.compare(cameraXOffset, g.cameraXOffset) == 0)
+		        && (Double.compare(cameraYOffset, g.cameraYOffset) == 0)
+		        && (Double.compare(cameraXShrink, g.cameraXShrink) == 0)
+		        && (Double.compare(cameraYShrink, g.cameraYShrink) == 0);
+	}
+
+	/**
+	 * the image hash folded down to an int, so copies of a genome, and a genome that's saved and
+	 * loaded again, have the same hashCode. It changes when the genome is changed
+	 */
+	@Override
+	public int hashCode() {
+		final long hash = imageHash();
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	private static boolean sameColors(final ColorSet[] a, final ColorSet[] b) {
+		if (a.length != b.length) {
+			return false;
+		}
+		for (int i = 0; i < a.length; i++) {
+			if ((Double.compare(a[i].r, b[i].r) != 0) || (Double.compare(a[i].g, b[i].g) != 0)
+			        || (Double.compare(a[i].b, b[i].b) != 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long mix(final long hash, final long value) {
+		return BlockRandom.splitMix(hash ^ value);
+	}
+
 	@Override
 	public String toString() {
 		return new Gson().toJson(this);
@@ -158,6 +273,148 @@ public final class FractalGenome {
 		finalTransformToggle = genome.finalTransformToggle;
 	}
 
+	/**
+	 * constructs a genome from its parts, the rest of the fields are filled in by the caller
+	 */
+	private FractalGenome(final int nAffineTransformatioins, final int[] affineProbabilities,
+	        final double[][][] affineMatrices, final double[][][] finalTransformMatrices,
+	        final double[][] variationParameters) {
+		this.nAffineTransformatioins = nAffineTransformatioins;
+		this.affineProbabilities = affineProbabilities;
+		this.affineMatrices = affineMatrices;
+		this.finalTransformMatrices = finalTransformMatrices;
+		this.variationParameters = variationParameters;
+	}
+
+	/**
+	 * returns the genome a fraction t of the way from a to b: the transforms' matrices,
+	 * probabilities and colors, the variations' weights and parameters and the camera are
+	 * interpolated linearly. If one genome has more transforms than the other, the extra transforms
+	 * keep their own matrices and colors and fade in or out through their probabilities, and a
+	 * variation only one of the genomes uses fades in or out through its weight. The toggles switch
+	 * half way.
+	 *
+	 * @param t
+	 *            0 for a, 1 for b
+	 */
+	public static FractalGenome interpolate(final FractalGenome a, final FractalGenome b, final double t) {
+		final int n = Utils.max(a.nAffineTransformatioins, b.nAffineTransformatioins);
+
+		final double[] probabilities = new double[n];
+		final double[] pa = FractalGenome.probabilities(a.affineProbabilities, n);
+		final double[] pb = FractalGenome.probabilities(b.affineProbabilities, n);
+		for (int i = 0; i < n; i++) {
+			probabilities[i] = Utils.lerp(pa[i], pb[i], t);
+		}
+
+		final double[][] parameters = new double[a.variationParameters.length][];
+		for (int v = 0; v < parameters.length; v++) {
+			parameters[v] = FractalGenome.lerp(a.variationParameters[v], b.variationParameters[v], t);
+		}
+
+		final FractalGenome g = new FractalGenome(n, FractalGenome.jumpTable(probabilities,
+		        a.affineProbabilities.length), FractalGenome.lerp(a.affineMatrices, b.affineMatrices, n, t),
+		        FractalGenome.lerp(a.finalTransformMatrices, b.finalTransformMatrices, n, t), parameters);
+		g.affineColor = FractalGenome.lerp(a.affineColor, b.affineColor, n, t);
+		g.finalColor = FractalGenome.lerp(a.finalColor, b.finalColor, n, t);
+
+		final TreeSet<Integer> both = new TreeSet<Integer>(a.variations);
+		both.addAll(b.variations);
+		g.variations = new TreeSet<Integer>();
+		g.variationWeights = new double[a.variationWeights.length];
+		for (final int v : both) {
+			final double wa = a.variations.contains(v) ? a.variationWeights[v] : 0;
+			final double wb = b.variations.contains(v) ? b.variationWeights[v] : 0;
+			g.variationWeights[v] = Utils.lerp(wa, wb, t);
+			// a variation with no weight is left out, so the end points are the genomes themselves
+			if (g.variationWeights[v] != 0) {
+				g.variations.add(v);
+			}
+		}
+
+		final FractalGenome nearest = (t < 0.5) ? a : b;
+		g.variationToggle = nearest.variationToggle;
+		g.finalTransformToggle = nearest.finalTransformToggle;
+
+		g.cameraXOffset = Utils.lerp(a.cameraXOffset, b.cameraXOffset, t);
+		g.cameraYOffset = Utils.lerp(a.cameraYOffset, b.cameraYOffset, t);
+		g.cameraXShrink = Utils.lerp(a.cameraXShrink, b.cameraXShrink, t);
+		g.cameraYShrink = Utils.lerp(a.cameraYShrink, b.cameraYShrink, t);
+		g.center = nearest.center;
+		return g;
+	}
+
+	/**
+	 * the probability of each of n transforms in a jump table, 0 for a transform past the ones in
+	 * the table
+	 */
+	private static double[] probabilities(final int[] jumpTable, final int n) {
+		final double[] probabilities = new double[n];
+		for (final int i : jumpTable) {
+			probabilities[i] += 1.0 / jumpTable.length;
+		}
+		return probabilities;
+	}
+
+	/**
+	 * a jump table of the given size in which each transform's share of the entries is its share
+	 * of the probabilities
+	 */
+	private static int[] jumpTable(final double[] probabilities, final int size) {
+		double sum = 0;
+		for (final double p : probabilities) {
+			sum += p;
+		}
+		final int[] jumpTable = new int[size];
+		int i = 0;
+		double cumulative = probabilities[0];
+		for (int j = 0; j < size; j++) {
+			while ((i < (probabilities.length - 1)) && (((j + 0.5) / size) >= (cumulative / sum))) {
+				cumulative += probabilities[++i];
+			}
+			jumpTable[j] = i;
+		}
+		return jumpTable;
+	}
+
+	private static double[] lerp(final double[] a, final double[] b, final double t) {
+		final double[] c = new double[a.length];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = Utils.lerp(a[i], b[i], t);
+		}
+		return c;
+	}
+
+	/**
+	 * interpolates n matrices, a matrix only one of a and b has is copied from it
+	 */
+	private static double[][][] lerp(final double[][][] a, final double[][][] b, final int n, final double t) {
+		final double[][][] c = new double[n][][];
+		for (int i = 0; i < n; i++) {
+			if (i >= a.length) {
+				c[i] = new double[][] { b[i][0].clone(), b[i][1].clone() };
+			} else if (i >= b.length) {
+				c[i] = new double[][] { a[i][0].clone(), a[i][1].clone() };
+			} else {
+				c[i] = new double[][] { FractalGenome.lerp(a[i][0], b[i][0], t), FractalGenome.lerp(a[i][1], b[i][1], t) };
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * interpolates n colors, a color only one of a and b has is copied from it
+	 */
+	private static ColorSet[] lerp(final ColorSet[] a, final ColorSet[] b, final int n, final double t) {
+		final ColorSet[] c = new ColorSet[n];
+		for (int i = 0; i < n; i++) {
+			final ColorSet ca = (i < a.length) ? a[i] : b[i];
+			final ColorSet cb = (i < b.length) ? b[i] : a[i];
+			c[i] = new ColorSet(Utils.lerp(ca.r, cb.r, t), Utils.lerp(ca.g, cb.g, t), Utils.lerp(ca.b, cb.b, t));
+		}
+		return c;
+	}
+
 	private void resetVariations() {
 		variations = new TreeSet<Integer>();
 
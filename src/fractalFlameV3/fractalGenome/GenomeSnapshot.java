@@ -0,0 +1,149 @@
+package fractalFlameV3.fractalGenome;
+
+import fractalFlameV3.kernel.KernelCompiler;
+import fractalFlameV3.kernel.VariationKernel;
+
+/**
+ * An immutable copy of everything the chaos game needs from a FractalGenome, flattened into arrays
+ * of primitives: the jump table, the affine and final matrices and colors laid out end to end, the
+ * variation kernel compiled for the genome (which holds the variations' constants) and the camera.
+ *
+ * The UI is free to change its FractalGenome at any time, because the render threads only ever
+ * read snapshots of it. A new snapshot is handed to them through a single volatile reference (see
+ * RenderScheduler), and none of a snapshot's arrays are written after it has been constructed.
+ *
+ * @author aaron
+ *
+ */
+public final class GenomeSnapshot {
+	/**
+	 * contentHash() of the genome, which covers everything but the camera
+	 */
+	public final long	        hash;
+
+	public final int	        nTransforms;
+
+	/**
+	 * the genome's affineProbabilities, a uniformly random entry is the transform to apply
+	 */
+	public final int[]	        jumpTable;
+
+	/**
+	 * the coefficients [ [a, b, c] [d, e, f] ] of the affine matrix of transform i are
+	 * affine[(6 * i) + 0] to affine[(6 * i) + 5], and likewise for the final transforms
+	 */
+	public final double[]	    affine;
+	public final double[]	    finalAffine;
+
+	/**
+	 * the r, g and b of the color of transform i are color[(3 * i) + 0] to color[(3 * i) + 2], and
+	 * likewise for the final transforms
+	 */
+	public final double[]	    color;
+	public final double[]	    finalColor;
+
+	public final boolean	    variationToggle;
+	public final boolean	    finalTransformToggle;
+
+	/**
+	 * applies the genome's variations, and the VariationContext quantities it needs
+	 */
+	public final VariationKernel	kernel;
+	public final int	        needs;
+
+	public final double	        cameraXOffset;
+	public final double	        cameraYOffset;
+	public final double	        cameraXShrink;
+	public final double	        cameraYShrink;
+
+	public GenomeSnapshot(final FractalGenome genome) {
+		this(genome, true);
+	}
+
+	/**
+	 * @param specialize
+	 *            false to use a GenericKernel rather than compile a kernel for the genome, see
+	 *            KernelCompiler.compile()
+	 */
+	public GenomeSnapshot(final FractalGenome genome, final boolean specialize) {
+		hash = genome.contentHash();
+		nTransforms = genome.nAffineTransformatioins;
+		jumpTable = genome.affineProbabilities.clone();
+
+		affine = new double[6 * nTransforms];
+		finalAffine = new double[6 * nTransforms];
+		color = new double[3 * nTransforms];
+		finalColor = new double[3 * nTransforms];
+		for (int i = 0; i < nTransforms; i++) {
+			GenomeSnapshot.flatten(genome.affineMatrices[i], affine, 6 * i);
+			GenomeSnapshot.flatten(genome.finalTransformMatrices[i], finalAffine, 6 * i);
+			color[(3 * i) + 0] = genome.affineColor[i].r;
+			color[(3 * i) + 1] = genome.affineColor[i].g;
+			color[(3 * i) + 2] = genome.affineColor[i].b;
+			finalColor[(3 * i) + 0] = genome.finalColor[i].r;
+			finalColor[(3 * i) + 1] = genome.finalColor[i].g;
+			finalColor[(3 * i) + 2] = genome.finalColor[i].b;
+		}
+
+		variationToggle = genome.variationToggle;
+		finalTransformToggle = genome.finalTransformToggle;
+
+		kernel = KernelCompiler.compile(genome, specialize);
+		needs = kernel.needs();
+
+		cameraXOffset = genome.cameraXOffset;
+		cameraYOffset = genome.cameraYOffset;
+		cameraXShrink = genome.cameraXShrink;
+		cameraYShrink = genome.cameraYShrink;
+	}
+
+	/**
+	 * a copy of snapshot with the camera of genome, sharing snapshot's arrays and kernel
+	 */
+	private GenomeSnapshot(final GenomeSnapshot snapshot, final FractalGenome genome) {
+		hash = snapshot.hash;
+		nTransforms = snapshot.nTransforms;
+		jumpTable = snapshot.jumpTable;
+		affine = snapshot.affine;
+		finalAffine = snapshot.finalAffine;
+		color = snapshot.color;
+		finalColor = snapshot.finalColor;
+		variationToggle = snapshot.variationToggle;
+		finalTransformToggle = snapshot.finalTransformToggle;
+		kernel = snapshot.kernel;
+		needs = snapshot.needs;
+
+		cameraXOffset = genome.cameraXOffset;
+		cameraYOffset = genome.cameraYOffset;
+		cameraXShrink = genome.cameraXShrink;
+		cameraYShrink = genome.cameraYShrink;
+	}
+
+	/**
+	 * returns a snapshot of genome as it is now. If only the camera has changed since 'last' was
+	 * taken the new snapshot shares last's arrays and kernel, and if nothing has changed last itself
+	 * is returned
+	 *
+	 * @param last
+	 *            the last snapshot of the genome, or null
+	 */
+	public static final GenomeSnapshot update(final GenomeSnapshot last, final FractalGenome genome) {
+		if ((last == null) || (last.hash != genome.contentHash())) {
+			return new GenomeSnapshot(genome);
+		}
+		if ((last.cameraXOffset != genome.cameraXOffset) || (last.cameraYOffset != genome.cameraYOffset)
+		        || (last.cameraXShrink != genome.cameraXShrink) || (last.cameraYShrink != genome.cameraYShrink)) {
+			return new GenomeSnapshot(last, genome);
+		}
+		return last;
+	}
+
+	private static final void flatten(final double[][] matrix, final double[] to, final int offset) {
+		to[offset + 0] = matrix[0][0];
+		to[offset + 1] = matrix[0][1];
+		to[offset + 2] = matrix[0][2];
+		to[offset + 3] = matrix[1][0];
+		to[offset + 4] = matrix[1][1];
+		to[offset + 5] = matrix[1][2];
+	}
+}
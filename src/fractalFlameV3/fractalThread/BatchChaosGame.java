@@ -0,0 +1,223 @@
+package fractalFlameV3.fractalThread;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.ColorSet;
+import fractalFlameV3.Histogram;
+import fractalFlameV3.HistogramBuffer;
+import fractalFlameV3.PointCache;
+import fractalFlameV3.Vec2D;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.kernel.VariationKernel;
+import fractalFlameV3.variations.VariationBatch;
+
+/**
+ * BatchChaosGame plays the same chaos game as ScalarChaosGame, but advances a batch of LANES
+ * independent points at a time. The points and their colors are stored as separate arrays of
+ * doubles, one element per lane, so the affine transforms, the variations that override the
+ * batched Variation.v() and the weighted sum of the variations are simple loops over arrays that
+ * the JIT can turn into SIMD instructions. Each lane has its own warmup count and is reset on its
+ * own when it escapes.
+ *
+ * @author aaron
+ *
+ */
+public final class BatchChaosGame implements ChaosGame {
+	/**
+	 * number of points advanced together
+	 */
+	public static final int	       LANES	= 64;
+
+	/**
+	 * iterations each point makes before it starts hitting the histogram
+	 */
+	private static final int	   WARMUP	= 50;
+
+	/*
+	 * random numbers for the game, set by restart()
+	 */
+	private BlockRandom	           r;
+
+	/*
+	 * genome being played
+	 */
+	private final GenomeSnapshot	genome;
+
+	/*
+	 * applies the genome's variations, compiled for this genome
+	 */
+	private final VariationKernel	kernel;
+
+	/*
+	 * the VariationContext quantities needed by the variations
+	 */
+	private final int	           needs;
+
+	/*
+	 * the points and their colors, one element per lane
+	 */
+	private final double[]	       x	    = new double[LANES];
+	private final double[]	       y	    = new double[LANES];
+	private final double[]	       red	    = new double[LANES];
+	private final double[]	       green	= new double[LANES];
+	private final double[]	       blue	    = new double[LANES];
+
+	/*
+	 * number of iterations each point has made since it was last reset
+	 */
+	private final int[]	           iters	= new int[LANES];
+
+	/*
+	 * affine matrix picked for each point this iteration
+	 */
+	private final int[]	           matrix	= new int[LANES];
+
+	/*
+	 * coefficients of each point's affine matrix, and the color that goes with it, gathered from
+	 * the genome so the transform itself is a straight loop
+	 */
+	private final double[]	       ma	    = new double[LANES];
+	private final double[]	       mb	    = new double[LANES];
+	private final double[]	       mc	    = new double[LANES];
+	private final double[]	       md	    = new double[LANES];
+	private final double[]	       me	    = new double[LANES];
+	private final double[]	       mf	    = new double[LANES];
+	private final double[]	       cr	    = new double[LANES];
+	private final double[]	       cg	    = new double[LANES];
+	private final double[]	       cb	    = new double[LANES];
+
+	/*
+	 * the points and the quantities derived from them that the variations share
+	 */
+	private final VariationBatch	in	    = new VariationBatch(LANES);
+
+	/*
+	 * output of the last variation, and the weighted sum of the variations
+	 */
+	private final double[]	       vx	    = new double[LANES];
+	private final double[]	       vy	    = new double[LANES];
+	private final double[]	       sumX	    = new double[LANES];
+	private final double[]	       sumY	    = new double[LANES];
+
+	/*
+	 * the point and color handed to the histogram
+	 */
+	private final Vec2D	           p	    = new Vec2D(0, 0);
+	private final ColorSet	       c	    = new ColorSet(0);
+
+	public BatchChaosGame(final GenomeSnapshot genome) {
+		this.genome = genome;
+		kernel = genome.kernel;
+		needs = genome.needs;
+	}
+
+	@Override
+	public final void restart(final BlockRandom random) {
+		r = random;
+		in.random = random;
+		for (int l = 0; l < LANES; l++) {
+			reset(l);
+		}
+	}
+
+	/**
+	 * every lane advances together, so the iterations are rounded up to a multiple of LANES
+	 */
+	@Override
+	public final void play(final long iterations, final Histogram histogram, final HistogramBuffer buffer,
+	        final PointCache.Recorder points) {
+		for (long i = 0; i < iterations; i += LANES) {
+			// randomly select each point's affine transformation, and gather its coefficients
+			for (int l = 0; l < LANES; l++) {
+				final int j = genome.jumpTable[r.nextInt(genome.jumpTable.length)];
+				matrix[l] = j;
+				gather(genome.affine, genome.color, j, l);
+			}
+
+			affine();
+
+			if (genome.variationToggle) {
+				in.set(x, y, genome.affine, matrix, needs, LANES);
+				kernel.apply(in, vx, vy, sumX, sumY, LANES);
+				System.arraycopy(sumX, 0, x, 0, LANES);
+				System.arraycopy(sumY, 0, y, 0, LANES);
+			}
+
+			if (genome.finalTransformToggle) {
+				for (int l = 0; l < LANES; l++) {
+					gather(genome.finalAffine, genome.finalColor, matrix[l], l);
+				}
+				affine();
+			}
+
+			for (int l = 0; l < LANES; l++) {
+				// x - x is only 0 if x is finite
+				if (((x[l] - x[l]) != 0) || ((y[l] - y[l]) != 0)) {
+					reset(l);
+				} else if ((iters[l] >= WARMUP) || (++iters[l] >= WARMUP)) {
+					// the count stops at WARMUP so it can't overflow
+					p.set(x[l], y[l]);
+					c.set(red[l], green[l], blue[l]);
+					if (buffer != null) {
+						buffer.hit(p, c);
+					} else {
+						histogram.hit(p, c);
+					}
+					if (points != null) {
+						points.record(p, c);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * copies the coefficients of affine matrix j and its color into lane l of the gathered arrays
+	 *
+	 * @param a
+	 *            affine matrices laid out end to end, see GenomeSnapshot.affine
+	 * @param color
+	 *            their colors laid out end to end, see GenomeSnapshot.color
+	 */
+	private final void gather(final double[] a, final double[] color, final int j, final int l) {
+		final int m = 6 * j;
+		ma[l] = a[m + 0];
+		mb[l] = a[m + 1];
+		mc[l] = a[m + 2];
+		md[l] = a[m + 3];
+		me[l] = a[m + 4];
+		mf[l] = a[m + 5];
+		cr[l] = color[(3 * j) + 0];
+		cg[l] = color[(3 * j) + 1];
+		cb[l] = color[(3 * j) + 2];
+	}
+
+	/**
+	 * applies each lane's gathered affine matrix to its point, and averages the gathered color into
+	 * its color
+	 */
+	private final void affine() {
+		for (int l = 0; l < LANES; l++) {
+			final double nx = (x[l] * ma[l]) + (y[l] * mb[l]) + mc[l];
+			final double ny = (x[l] * md[l]) + (y[l] * me[l]) + mf[l];
+			x[l] = nx;
+			y[l] = ny;
+		}
+		for (int l = 0; l < LANES; l++) {
+			red[l] = (red[l] + cr[l]) / 2.0;
+			green[l] = (green[l] + cg[l]) / 2.0;
+			blue[l] = (blue[l] + cb[l]) / 2.0;
+		}
+	}
+
+	/**
+	 * restarts lane l from a new random point
+	 */
+	private final void reset(final int l) {
+		x[l] = r.nextDouble(-1, 1);
+		y[l] = r.nextDouble(-1, 1);
+		red[l] = 0;
+		green[l] = 0;
+		blue[l] = 0;
+		iters[l] = 0;
+	}
+}
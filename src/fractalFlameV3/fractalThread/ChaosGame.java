@@ -0,0 +1,29 @@
+package fractalFlameV3.fractalThread;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.Histogram;
+import fractalFlameV3.HistogramBuffer;
+import fractalFlameV3.PointCache;
+
+/**
+ * A ChaosGame plays the chaos game of one genome for a bounded number of iterations at a time, so
+ * the same game can be run forever by a FractalThread or for an exact budget by a work unit. A
+ * game is only ever played by one thread at a time.
+ *
+ * @author aaron
+ *
+ */
+public interface ChaosGame {
+	/**
+	 * starts the game again from new random points, drawing every random number from now on from
+	 * random
+	 */
+	public void restart(BlockRandom random);
+
+	/**
+	 * advances the game by at least 'iterations' iterations, carrying on from where the last call
+	 * stopped. Points that have warmed up hit the buffer, or the histogram if buffer is null, and
+	 * are recorded by points unless it's null
+	 */
+	public void play(long iterations, Histogram histogram, HistogramBuffer buffer, PointCache.Recorder points);
+}
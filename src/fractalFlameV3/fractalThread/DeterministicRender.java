@@ -0,0 +1,351 @@
+package fractalFlameV3.fractalThread;
+
+import java.util.ArrayDeque;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.FastMath;
+import fractalFlameV3.Histogram;
+import fractalFlameV3.HistogramBuffer;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+
+/**
+ * DeterministicRender renders a genome for an exact number of iterations, and the histogram comes
+ * out bit for bit the same however many threads do the work. The iterations are split into
+ * numbered work units of UNIT_ITERATIONS each. Unit i plays a fresh ChaosGame from random numbers
+ * seeded by the genome's content hash and i, into its own growing HistogramBuffer. The units are
+ * played by a RenderScheduler's threads in whatever order they get to them, but the buffers are
+ * merged into the histogram strictly in unit order, so the histogram sees the same hits in the
+ * same order whichever thread played them.
+ *
+ * If the render is paused or abandoned every unit that was started is still finished and merged,
+ * so the histogram always holds the first units of the render and nothing else.
+ *
+ * A render can play several snapshots of a moving genome into the one histogram, for motion
+ * blur. The units are split evenly between them in order, and each unit is seeded by its own
+ * snapshot's hash. The histogram's camera is used for all of them.
+ *
+ * A render can also play just a range of the units, so the units can be shared out between
+ * processes, and the ranges merged in order come out the same as the whole render.
+ *
+ * The histogram must hold exactly the units before the first one the render plays when it starts,
+ * so it's empty for a whole render, and if it's reset the units that are merged after that are
+ * thrown away. A Checkpoint records the histogram along with the next unit to merge, so a render
+ * can be carried on later from where it was stopped. The result also depends on whether FastMath
+ * is fast and on which kind of ChaosGame is played, as they take different paths through the
+ * random numbers.
+ *
+ * @author aaron
+ *
+ */
+public final class DeterministicRender {
+	/**
+	 * iterations in each work unit
+	 */
+	public static final long	UNIT_ITERATIONS	= 1 << 16;
+
+	/**
+	 * the most units handed out ahead of the next unit to merge, which bounds the memory the
+	 * buffers of the finished units waiting to be merged use
+	 */
+	private static final int	WINDOW	        = 2 * Runtime.getRuntime().availableProcessors();
+
+	/*
+	 * the snapshots the units are shared between, in order
+	 */
+	private final GenomeSnapshot[]	genomes;
+
+	private final Histogram	    histogram;
+
+	private final long	        iterations;
+
+	/*
+	 * true to play BatchChaosGames, false for ScalarChaosGames
+	 */
+	private final boolean	    batched;
+
+	/*
+	 * whether FastMath was fast when the render was made, it mustn't be switched while the render
+	 * plays
+	 */
+	private final boolean	    fast;
+
+	/*
+	 * the histogram's epoch when the render was made
+	 */
+	private final int	        epoch;
+
+	/*
+	 * the units played are [first, last)
+	 */
+	private final long	        first;
+	private final long	        last;
+
+	/*
+	 * next unit to hand out, and next unit to merge, guarded by this
+	 */
+	private long	            next;
+	private long	            merged;
+
+	/*
+	 * true while hold() is running its task, finished units are left in pending rather than
+	 * merged. Guarded by this
+	 */
+	private boolean	            held	= false;
+
+	/*
+	 * time the first unit was handed out
+	 */
+	private long	            startNanos;
+
+	/*
+	 * finished units that are waiting for the units before them to be merged, unit u is held in
+	 * pending[u % WINDOW]. Guarded by this
+	 */
+	private final HistogramBuffer[]	pending	= new HistogramBuffer[WINDOW];
+
+	/*
+	 * buffers that have been merged and can be used for another unit, guarded by this
+	 */
+	private final ArrayDeque<HistogramBuffer>	free	= new ArrayDeque<HistogramBuffer>();
+
+	/**
+	 * @param genome
+	 *            genome to render
+	 * @param histogram
+	 *            an empty histogram, with its camera already set
+	 * @param iterations
+	 *            number of iterations to play
+	 * @param batched
+	 *            true to play BatchChaosGames, false for ScalarChaosGames
+	 */
+	public DeterministicRender(final GenomeSnapshot genome, final Histogram histogram, final long iterations,
+	        final boolean batched) {
+		this(genome, histogram, iterations, batched, 0, DeterministicRender.units(iterations));
+	}
+
+	/**
+	 * plays only the units [first, last) of the render of 'iterations' iterations
+	 */
+	public DeterministicRender(final GenomeSnapshot genome, final Histogram histogram, final long iterations,
+	        final boolean batched, final long first, final long last) {
+		this(new GenomeSnapshot[] { genome }, histogram, iterations, batched, first, last);
+	}
+
+	/**
+	 * plays the units of the render of 'iterations' iterations split evenly between genomes, in
+	 * order, for motion blur
+	 */
+	public DeterministicRender(final GenomeSnapshot[] genomes, final Histogram histogram, final long iterations,
+	        final boolean batched) {
+		this(genomes, histogram, iterations, batched, 0, DeterministicRender.units(iterations));
+	}
+
+	private DeterministicRender(final GenomeSnapshot[] genomes, final Histogram histogram, final long iterations,
+	        final boolean batched, final long first, final long last) {
+		this.genomes = genomes;
+		this.histogram = histogram;
+		this.iterations = iterations;
+		this.batched = batched;
+		fast = FastMath.isFast();
+		epoch = histogram.getEpoch();
+		this.first = first;
+		this.last = Math.min(last, DeterministicRender.units(iterations));
+		next = first;
+		merged = first;
+	}
+
+	/**
+	 * number of units a render of 'iterations' iterations is split into
+	 */
+	public static final long units(final long iterations) {
+		return ((iterations + UNIT_ITERATIONS) - 1) / UNIT_ITERATIONS;
+	}
+
+	/**
+	 * returns the seed of the random numbers of unit
+	 */
+	public static final long seed(final long genomeHash, final long unit) {
+		return BlockRandom.splitMix(genomeHash ^ unit);
+	}
+
+	/**
+	 * the snapshot the first units are played with
+	 */
+	public final GenomeSnapshot getGenome() {
+		return genomes[0];
+	}
+
+	public final Histogram getHistogram() {
+		return histogram;
+	}
+
+	public final int getEpoch() {
+		return epoch;
+	}
+
+	public final long getIterations() {
+		return iterations;
+	}
+
+	public final boolean isBatched() {
+		return batched;
+	}
+
+	/**
+	 * whether FastMath was fast when the render was made
+	 */
+	public final boolean isFast() {
+		return fast;
+	}
+
+	public final long getUnits() {
+		return last - first;
+	}
+
+	/**
+	 * number of units that have been merged into the histogram
+	 */
+	public final synchronized long getMerged() {
+		return merged - first;
+	}
+
+	/**
+	 * waits until every unit has been merged into the histogram
+	 */
+	public final synchronized void await() throws InterruptedException {
+		while (merged < last) {
+			wait();
+		}
+	}
+
+	/**
+	 * waits until every unit has been merged into the histogram, or until millis have passed,
+	 * returns true if every unit has been merged
+	 */
+	public final synchronized boolean await(final long millis) throws InterruptedException {
+		final long end = System.currentTimeMillis() + millis;
+		long left;
+		while ((merged < last) && ((left = end - System.currentTimeMillis()) > 0)) {
+			wait(left);
+		}
+		return merged == last;
+	}
+
+	/**
+	 * runs task while no more units are merged, and returns the next unit to merge. While task runs
+	 * the histogram holds exactly the units before that one, the threads carry on playing units
+	 * until they're WINDOW units ahead, and the units that finished meanwhile are merged once it
+	 * returns. The task runs on the calling thread without the render's lock
+	 */
+	public final long hold(final Runnable task) throws InterruptedException {
+		final long unit;
+		synchronized (this) {
+			while (held) {
+				wait();
+			}
+			held = true;
+			unit = merged;
+		}
+		try {
+			task.run();
+		} finally {
+			synchronized (this) {
+				held = false;
+				mergePending();
+				notifyAll();
+			}
+		}
+		return unit;
+	}
+
+	/**
+	 * waits until every unit has been handed out to a thread, after which the threads that have
+	 * nothing left to play can move on to another render while the last units are finished
+	 */
+	public final synchronized void awaitClaimed() throws InterruptedException {
+		while (next < last) {
+			wait();
+		}
+	}
+
+	/**
+	 * plays the next unit with a game of thread's and merges it in turn, returns false if there
+	 * were no units left to play
+	 */
+	final boolean playUnit(final FractalThread thread) {
+		final long unit = claim();
+		if (unit < 0) {
+			return false;
+		}
+		final GenomeSnapshot genome = genomes[(int) ((unit * genomes.length)
+		        / DeterministicRender.units(iterations))];
+		final ChaosGame game = thread.game(genome, batched);
+		final HistogramBuffer buffer = take();
+		game.restart(new BlockRandom(DeterministicRender.seed(genome.hash, unit)));
+		game.play(Math.min(UNIT_ITERATIONS, iterations - (unit * UNIT_ITERATIONS)), histogram, buffer, null);
+		finish(unit, buffer);
+		return true;
+	}
+
+	/**
+	 * returns the next unit to play, waiting until it's within WINDOW of the next unit to merge, or
+	 * -1 if there are no more units to play
+	 */
+	private final synchronized long claim() {
+		try {
+			while ((next < last) && (next >= (merged + WINDOW))) {
+				wait();
+			}
+		} catch (final InterruptedException e) {
+			System.out.println(e.getLocalizedMessage());
+			return -1;
+		}
+		if (next == first) {
+			startNanos = System.nanoTime();
+		}
+		if (next == (last - 1)) {
+			// wake awaitClaimed()
+			notifyAll();
+		}
+		return (next < last) ? next++ : -1;
+	}
+
+	private final synchronized HistogramBuffer take() {
+		HistogramBuffer buffer = free.poll();
+		if (buffer == null) {
+			buffer = new HistogramBuffer(histogram, true);
+		}
+		buffer.setEpoch(epoch);
+		return buffer;
+	}
+
+	/**
+	 * hands over the buffer of a finished unit, and merges every unit that's now next in line
+	 * unless the merges are being held
+	 */
+	private final synchronized void finish(final long unit, final HistogramBuffer buffer) {
+		pending[(int) (unit % WINDOW)] = buffer;
+		if (!held) {
+			mergePending();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * merges every finished unit that's next in line
+	 */
+	private final synchronized void mergePending() {
+		HistogramBuffer b;
+		while ((b = pending[(int) (merged % WINDOW)]) != null) {
+			pending[(int) (merged % WINDOW)] = null;
+			b.flush();
+			free.push(b);
+			merged++;
+			if (merged == last) {
+				final double seconds = (System.nanoTime() - startNanos) / 1e9;
+				System.out.println("# DR\t|\t " + (last - first) + " units in " + seconds + "s, checksum "
+				        + Long.toHexString(histogram.checksum()));
+			}
+		}
+	}
+}
@@ -1,150 +1,150 @@
 package fractalFlameV3.fractalThread;
 
-import java.util.concurrent.ThreadLocalRandom;
-
-import fractalFlameV3.ColorSet;
+import fractalFlameV3.BlockRandom;
 import fractalFlameV3.Histogram;
-import fractalFlameV3.Vec2D;
-import fractalFlameV3.fractalGenome.FractalGenome;
-import fractalFlameV3.variations.Variation;
-
+import fractalFlameV3.HistogramBuffer;
+import fractalFlameV3.PointCache;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.fractalThread.RenderScheduler.Target;
+
+/**
+ * FractalThread is one of the threads of a RenderScheduler's pool. It plays whatever the
+ * scheduler is targeting, a unit at a time, for as long as the program runs.
+ *
+ * @author aaron
+ *
+ */
 public final class FractalThread extends Thread {
+	private final RenderScheduler	scheduler;
+
 	/*
-	 * bind this thread's random instance to 'r' for easy access.
+	 * position of the thread in the scheduler's pool
 	 */
-	final ThreadLocalRandom	    r	= ThreadLocalRandom.current();
+	final int	                    index;
 
 	/*
-	 * the thread exits when this signal.running is false.
+	 * this thread's own stream of random numbers, split from the engine's generator
 	 */
-	private final ThreadSignal	signal;
+	private final BlockRandom	    r;
 
 	/*
-	 * genome of the thread being worked on.
+	 * the game being played, and the snapshot and kind of game it was made for
 	 */
-	private final FractalGenome	genome;
+	private ChaosGame	            game;
+	private GenomeSnapshot	        gameGenome;
+	private boolean	                gameBatched;
 
 	/*
-	 * variations to be used by the thread
+	 * private buffer the thread hits when the histogram is buffered, and the histogram it belongs
+	 * to
 	 */
-	private final Variation[]	variations;
+	private HistogramBuffer	        buffer;
+	private Histogram	            bufferHistogram;
 
 	/*
-	 * histogram being worked on
+	 * holds the points the thread plays until they're handed over to the target's PointCache
+	 */
+	private final PointCache.Recorder	recorder	= new PointCache.Recorder();
+
+	/**
+	 * @param random
+	 *            the thread's stream of random numbers, it must not be shared with another thread
 	 */
-	private final Histogram	    histogram;
+	FractalThread(final RenderScheduler scheduler, final int index, final BlockRandom random) {
+		this.scheduler = scheduler;
+		this.index = index;
+		r = random;
+		setDaemon(true);
+	}
 
+	@Override
 	public final void run() {
 		// set the thread to minimum priority so it doesn't make the system unusable
 		setPriority(Thread.MIN_PRIORITY);
 
-		/*
-		 * create some vectors used during the calculation. I try to avoid creating new objects at
-		 * all costs during the generation loop to make it a bit faster
-		 */
-
-		// the point in space the simulation is currently pointing at.
-		final Vec2D p = new Vec2D(r.nextDouble(-1, 1), r.nextDouble(-1, 1));
-
-		// This vector is used to hold the value of calculations so I don't modify the original
-		// value
-		final Vec2D tmpVec = new Vec2D(0, 0);
-
-		// accumlator for the variation functions
-		final Vec2D addVec = new Vec2D(0, 0);
-
-		/*
-		 * the color of the point being pointed at (RGB).
-		 */
-		final ColorSet currentColor = new ColorSet(0);
-
-		/*
-		 * number of squential iterations the simulation has completed successfully
-		 */
-		int iters = 0;
-
-		// the generation thread will run until it's signaled to stop through 'signal'
-		while (signal.running) {
-
-			// randomly selects the affine transformation to be applied to p
-			int j = r.nextInt(0, genome.affineProbabilities.length);
-			j = genome.affineProbabilities[j];
-			genome.currentMatrix = j;
-
-			// apply the affine matrix
-			p.set(affine(genome.affineMatrices[j], p, tmpVec));
-
-			// update the color with the color associated with this affine transformation
-			currentColor.hit(genome.affineColor[j]);
-
-			// apply non-linear variations
-			if (genome.variationToggle) {
-				// zero the accumlator because it doesn't reset between iterations
-				addVec.set(0, 0);
+		Target finished = null;
+		while (true) {
+			final Target target;
+			try {
+				target = scheduler.await(this, finished);
+			} catch (final InterruptedException e) {
+				System.out.println(e.getLocalizedMessage());
+				return;
+			}
 
-				// apply the variations, multiplying each by it's variation weight
-				for (final Variation v : variations) {
-					addVec.add(v.v(p, tmpVec).mul(genome.variationWeights[v.ID]));
+			try {
+				if (target.render != null) {
+					if (!playRender(target)) {
+						finished = target;
+					}
+				} else {
+					play(target);
 				}
-
-				// update the point
-				p.set(addVec);
+			} finally {
+				scheduler.done();
 			}
+		}
+	}
 
-			if (genome.finalTransformToggle) {
-				// apply the "Final" transformation
-				p.set(affine(genome.finalTransformMatrices[j], p, tmpVec));
+	/**
+	 * plays the target's genome until the target changes
+	 */
+	private final void play(final Target target) {
+		game(target.genome, target.batched).restart(r);
+
+		final Histogram histogram = target.histogram;
+		if (!target.buffered) {
+			buffer = null;
+		} else if ((buffer == null) || (bufferHistogram != histogram)) {
+			buffer = new HistogramBuffer(histogram);
+		}
+		bufferHistogram = histogram;
+		if (buffer != null) {
+			buffer.setEpoch(target.epoch);
+		}
 
-				// update the color with the color associated with this final transformation
-				currentColor.hit(genome.finalColor[j]);
-			}
+		final PointCache.Recorder points = (target.cache != null) ? recorder : null;
+		if (points != null) {
+			points.set(target.cache, target.genome.hash);
+		}
 
-			/*
-			 * if the point escaped to infinity, or ir NaN, reset the point, color, and number of
-			 * iterations and restart the simulation
-			 */
-			if (Double.isInfinite(p.x) || Double.isInfinite(p.y) || Double.isNaN(p.x) || Double.isNaN(p.y)) {
-				p.x = r.nextDouble(-1, 1);
-				p.y = r.nextDouble(-1, 1);
-
-				currentColor.set(0, 0, 0);
-				iters = 0;
-
-				continue;
-			} else {
-				// discard the first 50 iterations to allow the point to converge towards the set
-				// that makes up the attractor
-				if (++iters >= 50) {
-					histogram.hit(p, currentColor);
-				}
-			}
+		while (scheduler.isCurrent(this, target)) {
+			game.play(RenderScheduler.UNIT_ITERATIONS, histogram, buffer, points);
 		}
 
+		// hand whatever is left in the buffer over to the histogram, and the points to the cache,
+		// before stopping
+		if (buffer != null) {
+			buffer.flush();
+		}
+		if (points != null) {
+			points.flush();
+		}
 	}
 
-	public FractalThread(final FractalGenome genome, final ThreadSignal signal, final Histogram histogram) {
-		this.genome = new FractalGenome(genome);
-		this.signal = signal;
-		this.histogram = histogram;
-		variations = genome.getVariationObjects(this.genome);
+	/**
+	 * plays units of the target's render until the target changes, returns false if there were
+	 * no units left
+	 */
+	private final boolean playRender(final Target target) {
+		while (scheduler.isCurrent(this, target)) {
+			if (!target.render.playUnit(this)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * applies the affine matrix 'a' to the point 'pin', saving the result into pout
-	 * 
-	 * @param a
-	 *            affine matrix to apply
-	 * @param vectorIn
-	 *            vector to apply the matrix to
-	 * @param vectorOut
-	 *            vector to save the result
-	 * @return
+	 * returns a game for the snapshot. A game only reads its snapshot's transforms, colors and
+	 * kernel, so the last game is kept if the new snapshot has the same ones
 	 */
-	private final Vec2D affine(final double[][] a, final Vec2D vectorIn, final Vec2D vectorOut) {
-
-		final double x = (vectorIn.x * a[0][0]) + (vectorIn.y * a[0][1]) + (a[0][2]);
-		final double y = (vectorIn.x * a[1][0]) + (vectorIn.y * a[1][1]) + (a[1][2]);
-
-		return vectorOut.set(x, y);
+	final ChaosGame game(final GenomeSnapshot genome, final boolean batched) {
+		if ((game == null) || (gameGenome.hash != genome.hash) || (gameBatched != batched)) {
+			game = batched ? new BatchChaosGame(genome) : new ScalarChaosGame(genome);
+			gameGenome = genome;
+			gameBatched = batched;
+		}
+		return game;
 	}
 }
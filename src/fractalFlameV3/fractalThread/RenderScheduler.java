@@ -0,0 +1,215 @@
+package fractalFlameV3.fractalThread;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.Histogram;
+import fractalFlameV3.PointCache;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+
+/**
+ * RenderScheduler owns a fixed pool of FractalThreads that lives as long as the program does. The
+ * threads play a target in bounded units of work, and check between units whether the scheduler
+ * has been paused or retargeted, so nothing ever waits on threads being stopped, joined or
+ * created. pause() takes about one unit of work, and is only needed when nothing may iterate at
+ * all, such as while FastMath is switched.
+ *
+ * A target is either a genome played for as long as the scheduler runs, or a DeterministicRender
+ * whose units are shared out between the threads. The target is a single volatile reference that
+ * the threads read between units, so a new snapshot of the genome, such as a camera move or new
+ * colors, can be swapped in while they're running. The threads' buffers are stamped with the
+ * histogram epoch the target was set in, so if the histogram is reset before the new target is
+ * set, the hits still buffered for the old target are thrown away rather than merged.
+ *
+ * @author aaron
+ *
+ */
+public final class RenderScheduler {
+	/**
+	 * iterations a thread plays between checks for a pause or a new target
+	 */
+	static final long	            UNIT_ITERATIONS	= 1 << 12;
+
+	private final FractalThread[]	threads;
+
+	/*
+	 * what the threads are rendering, null for nothing
+	 */
+	private volatile Target	        target	    = null;
+
+	/*
+	 * the threads finish the unit they're playing and wait while this is true
+	 */
+	private volatile boolean	    paused	    = true;
+
+	/*
+	 * only the threads with an index below this play, the others wait
+	 */
+	private volatile int	        active;
+
+	/*
+	 * number of threads that are playing a target, guarded by this
+	 */
+	private int	                    playing	    = 0;
+
+	/**
+	 * creates the threads, which wait until there's a target and the scheduler is resumed
+	 *
+	 * @param threads
+	 *            number of threads in the pool
+	 * @param random
+	 *            every thread's stream of random numbers is split from this
+	 */
+	public RenderScheduler(final int threads, final BlockRandom random) {
+		this.threads = new FractalThread[threads];
+		active = threads;
+		for (int i = 0; i < threads; i++) {
+			this.threads[i] = new FractalThread(this, i, random.split());
+			this.threads[i].start();
+		}
+	}
+
+	/**
+	 * stops the threads playing, and waits until every thread has finished its unit and flushed
+	 * its buffer, so nothing hits the histogram until resume() is called
+	 */
+	public final synchronized void pause() {
+		paused = true;
+		try {
+			while (playing > 0) {
+				wait();
+			}
+		} catch (final InterruptedException e) {
+			System.out.println(e.getLocalizedMessage());
+		}
+	}
+
+	public final synchronized void resume() {
+		paused = false;
+		notifyAll();
+	}
+
+	public final boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * plays genome into histogram until the target changes. Nothing changes if that's already the
+	 * target and the histogram hasn't been reset, or switched between buffered and unbuffered
+	 * hits, since it was set.
+	 *
+	 * @param batched
+	 *            true to play BatchChaosGames, false for ScalarChaosGames
+	 * @param cache
+	 *            cache the points that are played are recorded into, or null
+	 */
+	public final synchronized void setTarget(final GenomeSnapshot genome, final Histogram histogram,
+	        final boolean batched, final PointCache cache) {
+		final Target t = target;
+		if ((t != null) && (t.render == null) && (t.genome == genome) && (t.histogram == histogram)
+		        && (t.batched == batched) && (t.cache == cache) && (t.epoch == histogram.getEpoch())
+		        && (t.buffered == histogram.isBuffered())) {
+			return;
+		}
+		target = new Target(genome, histogram, batched, cache, null);
+		notifyAll();
+	}
+
+	/**
+	 * plays the units of render until there are none left or the target changes
+	 */
+	public final synchronized void setTarget(final DeterministicRender render) {
+		if ((target == null) || (target.render != render)) {
+			target = new Target(render.getGenome(), render.getHistogram(), render.isBatched(), null, render);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * lets only the first n threads of the pool play
+	 */
+	public final synchronized void setThreads(final int n) {
+		active = n;
+		notifyAll();
+	}
+
+	public final int getThreads() {
+		return active;
+	}
+
+	/**
+	 * number of threads in the pool
+	 */
+	public final int getMaxThreads() {
+		return threads.length;
+	}
+
+	/**
+	 * waits until the thread should play, and returns the target to play. A thread that has
+	 * played every unit of a target passes it as finished, and waits for a new one
+	 */
+	final synchronized Target await(final FractalThread thread, final Target finished) throws InterruptedException {
+		while (paused || (target == null) || (target == finished) || (thread.index >= active)) {
+			wait();
+		}
+		playing++;
+		return target;
+	}
+
+	/**
+	 * called by a thread that has stopped playing the target await() returned
+	 */
+	final synchronized void done() {
+		playing--;
+		notifyAll();
+	}
+
+	/**
+	 * returns true while the thread should carry on playing target
+	 */
+	final boolean isCurrent(final FractalThread thread, final Target target) {
+		return !paused && (this.target == target) && (thread.index < active);
+	}
+
+	/**
+	 * what the threads are rendering. A new Target is made every time the target changes, so the
+	 * threads can tell it has changed by comparing references
+	 */
+	static final class Target {
+		final GenomeSnapshot	    genome;
+
+		final Histogram	            histogram;
+
+		/*
+		 * the histogram's epoch when the target was set
+		 */
+		final int	                epoch;
+
+		final boolean	            batched;
+
+		/*
+		 * whether the histogram took buffered hits when the target was set
+		 */
+		final boolean	            buffered;
+
+		/*
+		 * cache the points are recorded into, or null
+		 */
+		final PointCache	        cache;
+
+		/*
+		 * the render whose units are played, or null to play the genome until the target
+		 * changes
+		 */
+		final DeterministicRender	render;
+
+		Target(final GenomeSnapshot genome, final Histogram histogram, final boolean batched,
+		        final PointCache cache, final DeterministicRender render) {
+			this.genome = genome;
+			this.histogram = histogram;
+			epoch = (render != null) ? render.getEpoch() : histogram.getEpoch();
+			this.batched = batched;
+			buffered = histogram.isBuffered();
+			this.cache = cache;
+			this.render = render;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package fractalFlameV3.fractalThread;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.ColorSet;
+import fractalFlameV3.Histogram;
+import fractalFlameV3.HistogramBuffer;
+import fractalFlameV3.PointCache;
+import fractalFlameV3.Vec2D;
+import fractalFlameV3.fractalGenome.GenomeSnapshot;
+import fractalFlameV3.kernel.VariationKernel;
+import fractalFlameV3.variations.VariationContext;
+
+/**
+ * ScalarChaosGame plays the chaos game one point at a time.
+ *
+ * @author aaron
+ *
+ */
+public final class ScalarChaosGame implements ChaosGame {
+	/**
+	 * iterations the point makes before it starts hitting the histogram
+	 */
+	private static final int	    WARMUP	= 50;
+
+	/*
+	 * genome being played
+	 */
+	private final GenomeSnapshot	genome;
+
+	/*
+	 * applies the genome's variations, compiled for this genome
+	 */
+	private final VariationKernel	kernel;
+
+	/*
+	 * the VariationContext quantities needed by the variations
+	 */
+	private final int	            needs;
+
+	/*
+	 * random numbers for the game, set by restart()
+	 */
+	private BlockRandom	            r;
+
+	/*
+	 * the point in space the simulation is currently pointing at.
+	 */
+	private final Vec2D	            p	    = new Vec2D(0, 0);
+
+	/*
+	 * holds the value of calculations so the original value isn't modified
+	 */
+	private final Vec2D	            tmpVec	= new Vec2D(0, 0);
+
+	/*
+	 * accumlator for the variation functions
+	 */
+	private final Vec2D	            addVec	= new Vec2D(0, 0);
+
+	/*
+	 * the point and the quantities derived from it that the variations share
+	 */
+	private final VariationContext	in	    = new VariationContext();
+
+	/*
+	 * the color of the point being pointed at (RGB).
+	 */
+	private final ColorSet	        currentColor	= new ColorSet(0);
+
+	/*
+	 * number of squential iterations the simulation has completed successfully
+	 */
+	private int	                    iters	= 0;
+
+	public ScalarChaosGame(final GenomeSnapshot genome) {
+		this.genome = genome;
+		kernel = genome.kernel;
+		needs = genome.needs;
+	}
+
+	@Override
+	public final void restart(final BlockRandom random) {
+		r = random;
+		in.random = random;
+		p.set(r.nextDouble(-1, 1), r.nextDouble(-1, 1));
+		currentColor.set(0, 0, 0);
+		iters = 0;
+	}
+
+	@Override
+	public final void play(final long iterations, final Histogram histogram, final HistogramBuffer buffer,
+	        final PointCache.Recorder points) {
+		for (long i = 0; i < iterations; i++) {
+			// randomly selects the affine transformation to be applied to p
+			final int j = genome.jumpTable[r.nextInt(genome.jumpTable.length)];
+
+			// apply the affine matrix
+			p.set(affine(genome.affine, j, p, tmpVec));
+
+			// update the color with the color associated with this affine transformation
+			currentColor.hit(genome.color[3 * j], genome.color[(3 * j) + 1], genome.color[(3 * j) + 2]);
+
+			// apply non-linear variations
+			if (genome.variationToggle) {
+				// work out what the variations need from the point once, rather than in each
+				// variation
+				in.set(p, genome.affine, j, needs);
+
+				// apply the variations, multiplying each by it's variation weight
+				kernel.apply(in, tmpVec, addVec);
+
+				// update the point
+				p.set(addVec);
+			}
+
+			if (genome.finalTransformToggle) {
+				// apply the "Final" transformation
+				p.set(affine(genome.finalAffine, j, p, tmpVec));
+
+				// update the color with the color associated with this final transformation
+				currentColor.hit(genome.finalColor[3 * j], genome.finalColor[(3 * j) + 1],
+				        genome.finalColor[(3 * j) + 2]);
+			}
+
+			/*
+			 * if the point escaped to infinity, or ir NaN, reset the point, color, and number of
+			 * iterations and restart the simulation
+			 */
+			if (Double.isInfinite(p.x) || Double.isInfinite(p.y) || Double.isNaN(p.x) || Double.isNaN(p.y)) {
+				p.x = r.nextDouble(-1, 1);
+				p.y = r.nextDouble(-1, 1);
+
+				currentColor.set(0, 0, 0);
+				iters = 0;
+			} else if ((iters >= WARMUP) || (++iters >= WARMUP)) {
+				// the first iterations are discarded to allow the point to converge towards the
+				// set that makes up the attractor, the count stops at WARMUP so it can't overflow
+				if (buffer != null) {
+					buffer.hit(p, currentColor);
+				} else {
+					histogram.hit(p, currentColor);
+				}
+				if (points != null) {
+					points.record(p, currentColor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * applies affine matrix j to the point 'pin', saving the result into pout
+	 *
+	 * @param a
+	 *            affine matrices laid out end to end, see GenomeSnapshot.affine
+	 * @param j
+	 *            affine matrix to apply
+	 * @param vectorIn
+	 *            vector to apply the matrix to
+	 * @param vectorOut
+	 *            vector to save the result
+	 * @return
+	 */
+	private final Vec2D affine(final double[] a, final int j, final Vec2D vectorIn, final Vec2D vectorOut) {
+		final int m = 6 * j;
+		final double x = (vectorIn.x * a[m + 0]) + (vectorIn.y * a[m + 1]) + (a[m + 2]);
+		final double y = (vectorIn.x * a[m + 3]) + (vectorIn.y * a[m + 4]) + (a[m + 5]);
+
+		return vectorOut.set(x, y);
+	}
+}
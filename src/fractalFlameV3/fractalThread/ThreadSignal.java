@@ -1,11 +0,0 @@
-package fractalFlameV3.fractalThread;
-
-/**
- * ThreadSignal is used by FractalThreads. FractalThreads will exit when 'running' is set to false;
- * 
- * @author aaron
- * 
- */
-public final class ThreadSignal {
-	public boolean	running	= true;
-}
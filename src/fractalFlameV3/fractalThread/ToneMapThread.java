@@ -0,0 +1,196 @@
+package fractalFlameV3.fractalThread;
+
+import fractalFlameV3.Histogram;
+import fractalFlameV3.Utils;
+import fractalFlameV3.fractalGenome.FractalGenome;
+
+/**
+ * ToneMapThread tone maps the histogram into a frame buffer at a fixed rate, in the background.
+ * Main's draw() only has to copy the tiles that changed onto the screen, so the frame rate of the
+ * UI doesn't depend on how big the histogram is, and a slow tone map never holds up keyPressed().
+ *
+ * @author aaron
+ *
+ */
+public final class ToneMapThread extends Thread {
+	/*
+	 * size of the screen
+	 */
+	private final int	               swid;
+	private final int	               shei;
+
+	/*
+	 * the frame being tone mapped, only the tiles that change are written to it so it always holds
+	 * the whole of the last frame
+	 */
+	private final int[]	               back;
+
+	/*
+	 * the last complete frame. The tiles that change are copied into it from 'back' when a frame is
+	 * complete, while holding 'this'
+	 */
+	private final int[]	               front;
+
+	/*
+	 * tiles that changed in the last frame
+	 */
+	private final boolean[]	           changed;
+
+	/*
+	 * tiles of 'front' that haven't been copied to the screen yet, guarded by 'this'
+	 */
+	private final boolean[]	           pending;
+
+	private final int	               tilesX;
+	private final int	               tilesY;
+
+	/*
+	 * time between the start of each tone map
+	 */
+	private final long	               periodNanos;
+
+	/*
+	 * histogram and genome to tone map, Main swaps these when they change. The histogram is null
+	 * for none
+	 */
+	private volatile Histogram	       histogram;
+	private volatile FractalGenome	   genome;
+
+	/*
+	 * held while tone mapping, so setHistogram() can wait until the old histogram isn't in use
+	 */
+	private final Object	           toneMapping	= new Object();
+
+	/**
+	 * @param swid
+	 *            width of the screen
+	 * @param shei
+	 *            height of the screen
+	 * @param rate
+	 *            number of times a second to tone map the histogram
+	 * @param histogram
+	 *            histogram to tone map
+	 * @param genome
+	 *            genome being rendered into the histogram
+	 */
+	public ToneMapThread(final int swid, final int shei, final int rate, final Histogram histogram,
+	        final FractalGenome genome) {
+		this.swid = swid;
+		this.shei = shei;
+		back = new int[swid * shei];
+		front = new int[swid * shei];
+		tilesX = histogram.getTilesX();
+		tilesY = histogram.getTilesY();
+		changed = new boolean[tilesX * tilesY];
+		pending = new boolean[tilesX * tilesY];
+		periodNanos = 1000000000L / rate;
+		this.histogram = histogram;
+		this.genome = genome;
+		setDaemon(true);
+	}
+
+	@Override
+	public final void run() {
+		while (true) {
+			final long start = System.nanoTime();
+
+			synchronized (toneMapping) {
+				final Histogram h = histogram;
+				if ((h != null) && (h.updateChangedPixels(back, genome, changed) > 0)) {
+					synchronized (this) {
+						for (int t = 0; t < changed.length; t++) {
+							if (changed[t]) {
+								copyTile(back, front, t);
+								pending[t] = true;
+								changed[t] = false;
+							}
+						}
+					}
+				}
+			}
+
+			final long remaining = periodNanos - (System.nanoTime() - start);
+			if (remaining > 0) {
+				try {
+					Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+				} catch (final InterruptedException e) {
+					System.out.println(e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * copies the tiles of the latest frame that haven't been copied yet into pixels. The copied
+	 * area is returned as rectangles, one for each run of neighbouring tiles in a row of tiles, so
+	 * only those areas of the screen need to be updated.
+	 *
+	 * @param pixels
+	 *            array to copy the frame into
+	 * @param regions
+	 *            the rectangles that were copied are stored in here as x, y, width, height. It must
+	 *            be able to hold getMaxRegions() rectangles
+	 * @return number of rectangles copied, 0 if pixels is unchanged
+	 */
+	public final synchronized int copyFrame(final int[] pixels, final int[] regions) {
+		int nRegions = 0;
+		for (int ty = 0; ty < tilesY; ty++) {
+			int tx = 0;
+			while (tx < tilesX) {
+				if (!pending[tx + (ty * tilesX)]) {
+					tx++;
+					continue;
+				}
+				final int txStart = tx;
+				while ((tx < tilesX) && pending[tx + (ty * tilesX)]) {
+					copyTile(front, pixels, tx + (ty * tilesX));
+					pending[tx + (ty * tilesX)] = false;
+					tx++;
+				}
+
+				final int x = txStart * Histogram.TILE_PIXELS;
+				final int y = ty * Histogram.TILE_PIXELS;
+				regions[(4 * nRegions) + 0] = x;
+				regions[(4 * nRegions) + 1] = y;
+				regions[(4 * nRegions) + 2] = Utils.min(tx * Histogram.TILE_PIXELS, swid) - x;
+				regions[(4 * nRegions) + 3] = Utils.min(y + Histogram.TILE_PIXELS, shei) - y;
+				nRegions++;
+			}
+		}
+		return nRegions;
+	}
+
+	/**
+	 * the most rectangles copyFrame can return, one for every other tile
+	 */
+	public final int getMaxRegions() {
+		return ((tilesX + 1) / 2) * tilesY;
+	}
+
+	private final void copyTile(final int[] from, final int[] to, final int t) {
+		final int x = (t % tilesX) * Histogram.TILE_PIXELS;
+		final int yStart = (t / tilesX) * Histogram.TILE_PIXELS;
+		final int w = Utils.min(x + Histogram.TILE_PIXELS, swid) - x;
+		final int yEnd = Utils.min(yStart + Histogram.TILE_PIXELS, shei);
+
+		for (int y = yStart; y < yEnd; y++) {
+			System.arraycopy(from, x + (y * swid), to, x + (y * swid), w);
+		}
+	}
+
+	/**
+	 * tone maps histogram from now on, or nothing if it's null. If it's a different histogram this
+	 * waits for a tone map of the old one to finish, so the old one can be closed once it returns
+	 */
+	public final void setHistogram(final Histogram histogram) {
+		if (histogram != this.histogram) {
+			synchronized (toneMapping) {
+				this.histogram = histogram;
+			}
+		}
+	}
+
+	public final void setGenome(final FractalGenome genome) {
+		this.genome = genome;
+	}
+}
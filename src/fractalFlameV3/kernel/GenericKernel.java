@@ -0,0 +1,56 @@
+package fractalFlameV3.kernel;
+
+import fractalFlameV3.Vec2D;
+import fractalFlameV3.variations.Variation;
+import fractalFlameV3.variations.VariationBatch;
+import fractalFlameV3.variations.VariationContext;
+
+/**
+ * GenericKernel loops over the genome's variations, calling each one through the abstract
+ * Variation. KernelCompiler falls back on it when a genome can't be specialized.
+ *
+ * @author aaron
+ *
+ */
+final class GenericKernel implements VariationKernel {
+	private final Variation[]	variations;
+	private final double[]	  weights;
+	private final int	      needs;
+
+	GenericKernel(final Variation[] variations, final double[] weights) {
+		this.variations = variations;
+		this.weights = weights;
+		needs = Variation.needs(variations);
+	}
+
+	@Override
+	public final int needs() {
+		return needs;
+	}
+
+	@Override
+	public final Vec2D apply(final VariationContext in, final Vec2D tmp, final Vec2D out) {
+		out.set(0, 0);
+		for (int i = 0; i < variations.length; i++) {
+			out.add(variations[i].v(in, tmp).mul(weights[i]));
+		}
+		return out;
+	}
+
+	@Override
+	public final void apply(final VariationBatch in, final double[] tmpX, final double[] tmpY, final double[] sumX,
+	        final double[] sumY, final int n) {
+		for (int l = 0; l < n; l++) {
+			sumX[l] = 0;
+			sumY[l] = 0;
+		}
+		for (int i = 0; i < variations.length; i++) {
+			variations[i].v(in, tmpX, tmpY, n);
+			final double w = weights[i];
+			for (int l = 0; l < n; l++) {
+				sumX[l] += w * tmpX[l];
+				sumY[l] += w * tmpY[l];
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package fractalFlameV3.kernel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fractalFlameV3.fractalGenome.FractalGenome;
+import fractalFlameV3.variations.Variation;
+
+/**
+ * KernelCompiler builds a VariationKernel specialized for exactly one genome's variations and
+ * weights, by defining a fresh copy of SpecializedKernel for it (see SpecializedKernel). Kernels
+ * are cached by the content of the genome they were built for, so going back to a genome, or
+ * restarting the threads on the same genome, reuses its kernel instead of compiling it again.
+ *
+ * @author aaron
+ *
+ */
+public final class KernelCompiler {
+	/**
+	 * the most variations a SpecializedKernel has slots for, genomes with more get a GenericKernel
+	 */
+	public static final int	MAX_VARIATIONS	= 16;
+
+	/**
+	 * number of kernels kept in the cache, the least recently used kernel is dropped past this
+	 */
+	private static final int	CACHE_SIZE	= 32;
+
+	private static final KernelCache	cache	= new KernelCache();
+
+	/**
+	 * the class file of SpecializedKernel, loaded the first time a kernel is compiled
+	 */
+	private static byte[]	template;
+
+	/*
+	 * the variations, weights and needs of the kernel being compiled, read by its static
+	 * initializer. They are only set while holding the lock on KernelCompiler.class, and the static
+	 * initializer runs on the thread that holds it
+	 */
+	private static Variation[]	pendingVariations;
+	private static double[]	pendingWeights;
+	private static int	pendingNeeds;
+
+	private static long	compiled	= 0;
+	private static long	reused	= 0;
+
+	private KernelCompiler() {
+	}
+
+	/**
+	 * returns a kernel for the variations of genome, compiling it if there isn't one in the cache
+	 * for a genome with the same variations, weights and parameters
+	 */
+	public static final synchronized VariationKernel compile(final FractalGenome genome) {
+		return KernelCompiler.compile(genome, true);
+	}
+
+	/**
+	 * returns a kernel for the variations of genome, a GenericKernel if specialize is false. A
+	 * genome that's only played briefly, such as a frame of an animation, is better off with a
+	 * GenericKernel, whose code is shared with every other genome and stays compiled by the JIT,
+	 * than a specialized class of its own that the JIT has to compile from scratch
+	 */
+	public static final synchronized VariationKernel compile(final FractalGenome genome, final boolean specialize) {
+		final Variation[] variations = genome.getVariationObjects(genome);
+		final double[] weights = new double[variations.length];
+		for (int i = 0; i < variations.length; i++) {
+			weights[i] = genome.variationWeights[variations[i].ID];
+		}
+		if (!specialize) {
+			return new GenericKernel(variations, weights);
+		}
+
+		final String key = KernelCompiler.key(genome, variations, weights);
+		VariationKernel kernel = KernelCompiler.cache.get(key);
+		if (kernel != null) {
+			KernelCompiler.reused++;
+			return kernel;
+		}
+
+		if (variations.length <= KernelCompiler.MAX_VARIATIONS) {
+			kernel = KernelCompiler.specialize(variations, weights);
+		}
+		if (kernel == null) {
+			kernel = new GenericKernel(variations, weights);
+		}
+		KernelCompiler.cache.put(key, kernel);
+		KernelCompiler.compiled++;
+		System.out.println("# KC\t|\t " + kernel.getClass().getSimpleName() + " for " + variations.length
+		        + " variations (" + KernelCompiler.compiled + " compiled, " + KernelCompiler.reused + " reused)");
+		return kernel;
+	}
+
+	/**
+	 * returns what the kernel of genome depends on: its variations in order, their weights and the
+	 * parameters of the variations
+	 */
+	private static final String key(final FractalGenome genome, final Variation[] variations, final double[] weights) {
+		final StringBuilder key = new StringBuilder();
+		for (int i = 0; i < variations.length; i++) {
+			final int id = variations[i].ID;
+			key.append(id).append(':').append(Double.doubleToLongBits(weights[i]));
+			if (id < genome.variationParameters.length) {
+				for (final double p : genome.variationParameters[id]) {
+					key.append(',').append(Double.doubleToLongBits(p));
+				}
+			}
+			key.append(';');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * defines a new copy of SpecializedKernel for the variations, returns null if it can't be
+	 * defined
+	 */
+	private static final VariationKernel specialize(final Variation[] variations, final double[] weights) {
+		try {
+			if (KernelCompiler.template == null) {
+				KernelCompiler.template = KernelCompiler.readTemplate();
+			}
+
+			KernelCompiler.pendingVariations = variations;
+			KernelCompiler.pendingWeights = weights;
+			KernelCompiler.pendingNeeds = Variation.needs(variations);
+
+			final KernelLoader loader = new KernelLoader(KernelCompiler.class.getClassLoader());
+			loader.define(KernelCompiler.template);
+			// initializing the class runs its static initializer, which reads the pending fields
+			final Class<?> c = Class.forName(SpecializedKernel.class.getName(), true, loader);
+			return (VariationKernel) c.getConstructor().newInstance();
+		} catch (final IOException e) {
+			System.out.println(e.getLocalizedMessage());
+		} catch (final ReflectiveOperationException e) {
+			System.out.println(e.getLocalizedMessage());
+		} catch (final LinkageError e) {
+			System.out.println(e.getLocalizedMessage());
+		} finally {
+			KernelCompiler.pendingVariations = null;
+			KernelCompiler.pendingWeights = null;
+		}
+		return null;
+	}
+
+	private static final byte[] readTemplate() throws IOException {
+		final InputStream in = KernelCompiler.class.getResourceAsStream(SpecializedKernel.class.getSimpleName()
+		        + ".class");
+		if (in == null) {
+			throw new IOException("can't find the class file of " + SpecializedKernel.class.getName());
+		}
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * called by the static initializer of the SpecializedKernel being compiled
+	 */
+
+	public static final int count() {
+		return KernelCompiler.pendingVariations.length;
+	}
+
+	public static final int needs() {
+		return KernelCompiler.pendingNeeds;
+	}
+
+	public static final Variation variation(final int i) {
+		return (i < KernelCompiler.pendingVariations.length) ? KernelCompiler.pendingVariations[i] : null;
+	}
+
+	public static final double weight(final int i) {
+		return (i < KernelCompiler.pendingWeights.length) ? KernelCompiler.pendingWeights[i] : 0;
+	}
+
+	/**
+	 * kernels by the key of their genome, in order of use
+	 */
+	private static final class KernelCache extends LinkedHashMap<String, VariationKernel> {
+		private static final long	serialVersionUID	= 1L;
+
+		KernelCache() {
+			super(KernelCompiler.CACHE_SIZE, 0.75f, true);
+		}
+
+		@Override
+		protected final boolean removeEldestEntry(final Map.Entry<String, VariationKernel> eldest) {
+			return size() > KernelCompiler.CACHE_SIZE;
+		}
+	}
+
+	/**
+	 * defines one copy of SpecializedKernel. Every other class the copy uses is loaded by the
+	 * parent
+	 */
+	private static final class KernelLoader extends ClassLoader {
+		KernelLoader(final ClassLoader parent) {
+			super(parent);
+		}
+
+		final Class<?> define(final byte[] b) {
+			return defineClass(SpecializedKernel.class.getName(), b, 0, b.length);
+		}
+	}
+}
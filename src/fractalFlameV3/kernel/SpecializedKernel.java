@@ -0,0 +1,234 @@
+package fractalFlameV3.kernel;
+
+import fractalFlameV3.Vec2D;
+import fractalFlameV3.variations.Variation;
+import fractalFlameV3.variations.VariationBatch;
+import fractalFlameV3.variations.VariationContext;
+
+/**
+ * SpecializedKernel is the template KernelCompiler copies for every genome it compiles. Each copy
+ * is defined by its own class loader, and its static initializer takes the genome's variations and
+ * weights from KernelCompiler, so in each copy:
+ *
+ * - the number of variations, the variations and their weights are static final constants the JIT
+ * folds into the code, and the slots past the number of variations drop out entirely,
+ *
+ * - every variation is called from its own call site, which only ever sees one class of
+ * Variation, so the call is inlined rather than going through a megamorphic virtual call.
+ *
+ * The template itself is never initialized.
+ *
+ * @author aaron
+ *
+ */
+public final class SpecializedKernel implements VariationKernel {
+	private static final int	   N	 = KernelCompiler.count();
+	private static final int	   NEEDS	= KernelCompiler.needs();
+	private static final Variation	V0	= KernelCompiler.variation(0);
+	private static final Variation	V1	= KernelCompiler.variation(1);
+	private static final Variation	V2	= KernelCompiler.variation(2);
+	private static final Variation	V3	= KernelCompiler.variation(3);
+	private static final Variation	V4	= KernelCompiler.variation(4);
+	private static final Variation	V5	= KernelCompiler.variation(5);
+	private static final Variation	V6	= KernelCompiler.variation(6);
+	private static final Variation	V7	= KernelCompiler.variation(7);
+	private static final Variation	V8	= KernelCompiler.variation(8);
+	private static final Variation	V9	= KernelCompiler.variation(9);
+	private static final Variation	V10	= KernelCompiler.variation(10);
+	private static final Variation	V11	= KernelCompiler.variation(11);
+	private static final Variation	V12	= KernelCompiler.variation(12);
+	private static final Variation	V13	= KernelCompiler.variation(13);
+	private static final Variation	V14	= KernelCompiler.variation(14);
+	private static final Variation	V15	= KernelCompiler.variation(15);
+	private static final double	W0	= KernelCompiler.weight(0);
+	private static final double	W1	= KernelCompiler.weight(1);
+	private static final double	W2	= KernelCompiler.weight(2);
+	private static final double	W3	= KernelCompiler.weight(3);
+	private static final double	W4	= KernelCompiler.weight(4);
+	private static final double	W5	= KernelCompiler.weight(5);
+	private static final double	W6	= KernelCompiler.weight(6);
+	private static final double	W7	= KernelCompiler.weight(7);
+	private static final double	W8	= KernelCompiler.weight(8);
+	private static final double	W9	= KernelCompiler.weight(9);
+	private static final double	W10	= KernelCompiler.weight(10);
+	private static final double	W11	= KernelCompiler.weight(11);
+	private static final double	W12	= KernelCompiler.weight(12);
+	private static final double	W13	= KernelCompiler.weight(13);
+	private static final double	W14	= KernelCompiler.weight(14);
+	private static final double	W15	= KernelCompiler.weight(15);
+
+	public SpecializedKernel() {
+	}
+
+	@Override
+	public final int needs() {
+		return NEEDS;
+	}
+
+	@Override
+	public final Vec2D apply(final VariationContext in, final Vec2D tmp, final Vec2D out) {
+		double x = 0, y = 0;
+		if (N > 0) {
+			V0.v(in, tmp);
+			x += tmp.x * W0;
+			y += tmp.y * W0;
+		}
+		if (N > 1) {
+			V1.v(in, tmp);
+			x += tmp.x * W1;
+			y += tmp.y * W1;
+		}
+		if (N > 2) {
+			V2.v(in, tmp);
+			x += tmp.x * W2;
+			y += tmp.y * W2;
+		}
+		if (N > 3) {
+			V3.v(in, tmp);
+			x += tmp.x * W3;
+			y += tmp.y * W3;
+		}
+		if (N > 4) {
+			V4.v(in, tmp);
+			x += tmp.x * W4;
+			y += tmp.y * W4;
+		}
+		if (N > 5) {
+			V5.v(in, tmp);
+			x += tmp.x * W5;
+			y += tmp.y * W5;
+		}
+		if (N > 6) {
+			V6.v(in, tmp);
+			x += tmp.x * W6;
+			y += tmp.y * W6;
+		}
+		if (N > 7) {
+			V7.v(in, tmp);
+			x += tmp.x * W7;
+			y += tmp.y * W7;
+		}
+		if (N > 8) {
+			V8.v(in, tmp);
+			x += tmp.x * W8;
+			y += tmp.y * W8;
+		}
+		if (N > 9) {
+			V9.v(in, tmp);
+			x += tmp.x * W9;
+			y += tmp.y * W9;
+		}
+		if (N > 10) {
+			V10.v(in, tmp);
+			x += tmp.x * W10;
+			y += tmp.y * W10;
+		}
+		if (N > 11) {
+			V11.v(in, tmp);
+			x += tmp.x * W11;
+			y += tmp.y * W11;
+		}
+		if (N > 12) {
+			V12.v(in, tmp);
+			x += tmp.x * W12;
+			y += tmp.y * W12;
+		}
+		if (N > 13) {
+			V13.v(in, tmp);
+			x += tmp.x * W13;
+			y += tmp.y * W13;
+		}
+		if (N > 14) {
+			V14.v(in, tmp);
+			x += tmp.x * W14;
+			y += tmp.y * W14;
+		}
+		if (N > 15) {
+			V15.v(in, tmp);
+			x += tmp.x * W15;
+			y += tmp.y * W15;
+		}
+		return out.set(x, y);
+	}
+
+	@Override
+	public final void apply(final VariationBatch in, final double[] tmpX, final double[] tmpY, final double[] sumX,
+	        final double[] sumY, final int n) {
+		for (int l = 0; l < n; l++) {
+			sumX[l] = 0;
+			sumY[l] = 0;
+		}
+		if (N > 0) {
+			V0.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W0, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 1) {
+			V1.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W1, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 2) {
+			V2.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W2, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 3) {
+			V3.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W3, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 4) {
+			V4.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W4, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 5) {
+			V5.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W5, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 6) {
+			V6.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W6, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 7) {
+			V7.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W7, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 8) {
+			V8.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W8, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 9) {
+			V9.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W9, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 10) {
+			V10.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W10, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 11) {
+			V11.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W11, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 12) {
+			V12.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W12, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 13) {
+			V13.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W13, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 14) {
+			V14.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W14, tmpX, tmpY, sumX, sumY, n);
+		}
+		if (N > 15) {
+			V15.v(in, tmpX, tmpY, n);
+			SpecializedKernel.add(W15, tmpX, tmpY, sumX, sumY, n);
+		}
+	}
+
+	private static final void add(final double w, final double[] tmpX, final double[] tmpY, final double[] sumX,
+	        final double[] sumY, final int n) {
+		for (int l = 0; l < n; l++) {
+			sumX[l] += tmpX[l] * w;
+			sumY[l] += tmpY[l] * w;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package fractalFlameV3.kernel;
+
+import fractalFlameV3.Vec2D;
+import fractalFlameV3.variations.VariationBatch;
+import fractalFlameV3.variations.VariationContext;
+
+/**
+ * A VariationKernel applies all of a genome's variations to a point and sums them by their
+ * weights. Kernels hold no state of their own, so one kernel can be shared by every thread
+ * rendering the genome. KernelCompiler builds them.
+ *
+ * @author aaron
+ *
+ */
+public interface VariationKernel {
+	/**
+	 * the VariationContext flags needed by the kernel's variations
+	 */
+	public int needs();
+
+	/**
+	 * sets out to the weighted sum of the variations applied to the point in 'in'
+	 *
+	 * @param tmp
+	 *            scratch vector, its contents are lost
+	 * @return out
+	 */
+	public Vec2D apply(VariationContext in, Vec2D tmp, Vec2D out);
+
+	/**
+	 * sets sumX and sumY to the weighted sum of the variations applied to the first n points of
+	 * the batch 'in'
+	 *
+	 * @param tmpX
+	 *            scratch array, its contents are lost
+	 * @param tmpY
+	 *            scratch array, its contents are lost
+	 */
+	public void apply(VariationBatch in, double[] tmpX, double[] tmpY, double[] sumX, double[] sumY, int n);
+}
@@ -11,13 +11,9 @@ public final class Bent14 extends Variation {
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
 
 		pOut.x = x;
 		pOut.y = y;
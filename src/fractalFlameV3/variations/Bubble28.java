@@ -8,16 +8,14 @@ public final class Bubble28 extends Variation {
 	public Bubble28(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 28;
+		needs = VariationContext.R;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
+		final double r = in.r;
 
 		pOut.x = (4 / ((r * r) + 4)) * x;
 		pOut.y = (4 / ((r * r) + 4)) * y;
@@ -25,4 +23,12 @@ public final class Bubble28 extends Variation {
 		return pOut;
 	}
 
+	@Override
+	public void v(final VariationBatch in, final double[] xOut, final double[] yOut, final int n) {
+		for (int i = 0; i < n; i++) {
+			final double multiplier = 4 / (in.rsq[i] + 4);
+			xOut[i] = multiplier * in.x[i];
+			yOut[i] = multiplier * in.y[i];
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -11,15 +12,11 @@ public final class Cylinder29 extends Variation {
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
 
-		pOut.x = Math.sin(x);
+		pOut.x = FastMath.sin(x);
 		pOut.y = y;
 
 		return pOut;
@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -8,22 +9,19 @@ public class Disc8 extends Variation {
 	public Disc8(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 8;
+		needs = VariationContext.R | VariationContext.THETA;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
 
 		final double tOverPi = t / Math.PI;
 		final double piR = Math.PI * r;
 
-		pOut.x = tOverPi * Math.sin(piR);
-		pOut.y = tOverPi * Math.cos(piR);
+		pOut.x = tOverPi * FastMath.sin(piR);
+		pOut.y = tOverPi * FastMath.cos(piR);
 
 		return pOut;
 	}
@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -8,22 +9,19 @@ public final class Ex12 extends Variation {
 	public Ex12(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 12;
+		needs = VariationContext.R | VariationContext.THETA;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
-
-		final double p0 = Math.sin(t + r);
-		final double p1 = Math.cos(t - r);
-
-		pOut.x = Math.pow(p0, 3) + Math.pow(p1, 3);
-		pOut.y = Math.pow(p0, 3) - Math.pow(p1, 3);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
+
+		final double p0 = FastMath.sin(t + r);
+		final double p1 = FastMath.cos(t - r);
+
+		pOut.x = FastMath.pow(p0, 3) + FastMath.pow(p1, 3);
+		pOut.y = FastMath.pow(p0, 3) - FastMath.pow(p1, 3);
 
 		return pOut;
 	}
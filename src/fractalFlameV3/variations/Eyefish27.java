@@ -8,16 +8,14 @@ public final class Eyefish27 extends Variation {
 	public Eyefish27(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 27;
+		needs = VariationContext.R;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
+		final double r = in.r;
 
 		pOut.x = (2 / (r + 1)) * x;
 		pOut.y = (2 / (r + 1)) * y;
@@ -25,4 +23,12 @@ public final class Eyefish27 extends Variation {
 		return pOut;
 	}
 
+	@Override
+	public void v(final VariationBatch in, final double[] xOut, final double[] yOut, final int n) {
+		for (int i = 0; i < n; i++) {
+			final double multiplier = 2 / (in.r[i] + 1);
+			xOut[i] = multiplier * in.x[i];
+			yOut[i] = multiplier * in.y[i];
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -7,33 +8,24 @@ public final class Fan22 extends Variation {
 	public Fan22(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 22;
+		needs = VariationContext.R | VariationContext.THETA | VariationContext.AFFINE;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
-
-		final double[][] currentMatrix = currentGenome.affineMatrices[currentGenome.currentMatrix];
-		final double a = currentMatrix[0][0];
-		final double b = currentMatrix[0][1];
-		final double c = currentMatrix[0][2];
-		final double d = currentMatrix[1][0];
-		final double e = currentMatrix[1][1];
-		final double f = currentMatrix[1][2];
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
+		final double c = in.c;
+		final double f = in.f;
 
 		final double T = Math.PI * c * c;
 
 		if (((t + f) % (T)) > (T / 2)) {
-			pOut.x = r * (Math.cos(t - (T / 2)));
-			pOut.y = r * (Math.sin(t - (T / 2)));
+			pOut.x = r * (FastMath.cos(t - (T / 2)));
+			pOut.y = r * (FastMath.sin(t - (T / 2)));
 		} else {
-			pOut.x = r * (Math.cos(t + (T / 2)));
-			pOut.y = r * (Math.sin(t + (T / 2)));
+			pOut.x = r * (FastMath.cos(t + (T / 2)));
+			pOut.y = r * (FastMath.sin(t + (T / 2)));
 		}
 
 		return pOut;
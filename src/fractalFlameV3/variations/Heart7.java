@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -8,21 +9,18 @@ public final class Heart7 extends Variation {
 	public Heart7(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 7;
+		needs = VariationContext.R | VariationContext.THETA;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
 
 		final double tr = t * r;
 
-		pOut.x = r * Math.sin(tr);
-		pOut.y = r * Math.cos(tr);
+		pOut.x = r * FastMath.sin(tr);
+		pOut.y = r * FastMath.cos(tr);
 
 		return pOut;
 	}
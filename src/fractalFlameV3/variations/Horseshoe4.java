@@ -8,16 +8,14 @@ public class Horseshoe4 extends Variation {
 	public Horseshoe4(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 4;
+		needs = VariationContext.R;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
+		final double r = in.r;
 
 		pOut.x = ((x - y) * (x + y)) / r;
 		pOut.y = 2 * x * y;
@@ -25,4 +23,11 @@ public class Horseshoe4 extends Variation {
 		return pOut;
 	}
 
+	@Override
+	public void v(final VariationBatch in, final double[] xOut, final double[] yOut, final int n) {
+		for (int i = 0; i < n; i++) {
+			xOut[i] = ((in.x[i] - in.y[i]) * (in.x[i] + in.y[i])) / in.r[i];
+			yOut[i] = 2 * in.x[i] * in.y[i];
+		}
+	}
 }
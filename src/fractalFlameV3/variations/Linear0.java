@@ -11,9 +11,9 @@ public final class Linear0 extends Variation {
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
 
 		pOut.x = x;
 		pOut.y = y;
@@ -21,4 +21,11 @@ public final class Linear0 extends Variation {
 		return pOut;
 	}
 
+	@Override
+	public void v(final VariationBatch in, final double[] xOut, final double[] yOut, final int n) {
+		for (int i = 0; i < n; i++) {
+			xOut[i] = in.x[i];
+			yOut[i] = in.y[i];
+		}
+	}
 }
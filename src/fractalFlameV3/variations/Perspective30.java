@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -14,24 +15,12 @@ public final class Perspective30 extends Variation {
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
 
-		final double[][] currentMatrix = currentGenome.affineMatrices[currentGenome.currentMatrix];
-		final double a = currentMatrix[0][0];
-		final double b = currentMatrix[0][1];
-		final double c = currentMatrix[0][2];
-		final double d = currentMatrix[1][0];
-		final double e = currentMatrix[1][1];
-		final double f = currentMatrix[1][2];
-
-		pOut.x = (p2 / (p2 - (y * Math.sin((p1 * Math.PI) / 4)))) * x;
-		pOut.y = (p2 / (p2 - (y * Math.cos((p1 * Math.PI) / 4)))) * y * Math.cos(p1);
+		pOut.x = (p2 / (p2 - (y * FastMath.sin((p1 * Math.PI) / 4)))) * x;
+		pOut.y = (p2 / (p2 - (y * FastMath.cos((p1 * Math.PI) / 4)))) * y * FastMath.cos(p1);
 
 		return pOut;
 	}
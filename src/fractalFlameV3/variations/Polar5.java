@@ -8,16 +8,13 @@ public final class Polar5 extends Variation {
 	public Polar5(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 5;
+		needs = VariationContext.R | VariationContext.THETA;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
 
 		pOut.x = t / Math.PI;
 		pOut.y = r - 1;
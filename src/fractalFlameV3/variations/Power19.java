@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -8,22 +9,19 @@ public final class Power19 extends Variation {
 	public Power19(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 19;
+		needs = VariationContext.R | VariationContext.THETA;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
 
-		final double sinT = Math.sin(t);
+		final double sinT = FastMath.sin(t);
 
-		final double multiplier = Math.pow(r, sinT);
+		final double multiplier = FastMath.pow(r, sinT);
 
-		pOut.x = multiplier * Math.cos(t);
+		pOut.x = multiplier * FastMath.cos(t);
 		pOut.y = multiplier * sinT;
 
 		return pOut;
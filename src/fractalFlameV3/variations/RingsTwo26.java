@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -9,30 +10,19 @@ public final class RingsTwo26 extends Variation {
 	public RingsTwo26(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 26;
-		p1 = Math.pow(currentGenome.variationParameters[ID][0], 1);
+		needs = VariationContext.R | VariationContext.THETA;
+		p1 = FastMath.pow(currentGenome.variationParameters[ID][0], 1);
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
-
-		final double[][] currentMatrix = currentGenome.affineMatrices[currentGenome.currentMatrix];
-		final double a = currentMatrix[0][0];
-		final double b = currentMatrix[0][1];
-		final double c = currentMatrix[0][2];
-		final double d = currentMatrix[1][0];
-		final double e = currentMatrix[1][1];
-		final double f = currentMatrix[1][2];
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
 
 		final double T = (r - (2 * p1 * p1 * Math.floor((r + (p1 * p1)) / (2 * p1 * p1)))) + (r * (1 - (p1 * p1)));
 
-		pOut.x = T * Math.sin(t);
-		pOut.y = T * Math.cos(t);
+		pOut.x = T * FastMath.sin(t);
+		pOut.y = T * FastMath.cos(t);
 
 		return pOut;
 	}
@@ -8,20 +8,26 @@ public final class Spherical2 extends Variation {
 	public Spherical2(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 2;
+		needs = VariationContext.RSQ;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
+		final double rsq = in.rsq;
 
 		pOut.x = x / rsq;
 		pOut.y = y / rsq;
 
 		return pOut;
 	}
+
+	@Override
+	public void v(final VariationBatch in, final double[] xOut, final double[] yOut, final int n) {
+		for (int i = 0; i < n; i++) {
+			xOut[i] = in.x[i] / in.rsq[i];
+			yOut[i] = in.y[i] / in.rsq[i];
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -8,19 +9,16 @@ public final class Spiral9 extends Variation {
 	public Spiral9(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 9;
+		needs = VariationContext.R | VariationContext.THETA;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double r = in.r;
+		final double t = in.theta;
 
-		pOut.x = (Math.cos(t) + Math.sin(r)) / r;
-		pOut.y = (Math.sin(t) - Math.cos(r)) / r;
+		pOut.x = (FastMath.cos(t) + FastMath.sin(r)) / r;
+		pOut.y = (FastMath.sin(t) - FastMath.cos(r)) / r;
 
 		return pOut;
 	}
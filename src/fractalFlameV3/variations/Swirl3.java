@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -8,19 +9,17 @@ public final class Swirl3 extends Variation {
 	public Swirl3(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 3;
+		needs = VariationContext.RSQ;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
-
-		final double srsq = Math.sin(rsq);
-		final double crsq = Math.cos(rsq);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
+		final double rsq = in.rsq;
+
+		final double srsq = FastMath.sin(rsq);
+		final double crsq = FastMath.cos(rsq);
 
 		pOut.x = (x * srsq) - (y * crsq);
 		pOut.y = (x * crsq) + (y * srsq);
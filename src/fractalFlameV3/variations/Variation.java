@@ -9,11 +9,45 @@ public abstract class Variation {
 
 	public int	            ID	                 = -1;
 
+	/**
+	 * the VariationContext flags of the quantities the variation reads, besides x and y
+	 */
+	public int	            needs	             = 0;
+
 	public static final int	NUMBER_OF_VARIATIONS	= (31) + 1;
 
 	public Variation(final FractalGenome currentGenome) {
 		this.currentGenome = currentGenome;
 	}
 
-	public abstract Vec2D v(Vec2D pIn, Vec2D pOut);
+	public abstract Vec2D v(VariationContext in, Vec2D pOut);
+
+	/**
+	 * applies the variation to the first n points of a batch. By default each point is passed
+	 * through v(VariationContext, Vec2D) in turn, variations that only depend on the point override
+	 * this with a plain loop over the arrays that the JIT can vectorize. Variations hold no state of
+	 * their own, so one can be shared by several threads, the point being passed through is held
+	 * in the batch, which belongs to one thread.
+	 */
+	public void v(final VariationBatch in, final double[] xOut, final double[] yOut, final int n) {
+		final VariationContext batchIn = in.point;
+		final Vec2D batchOut = in.pointOut;
+		for (int i = 0; i < n; i++) {
+			batchIn.set(in, i);
+			v(batchIn, batchOut);
+			xOut[i] = batchOut.x;
+			yOut[i] = batchOut.y;
+		}
+	}
+
+	/**
+	 * returns the VariationContext flags needed by any of the variations
+	 */
+	public static final int needs(final Variation[] variations) {
+		int needs = 0;
+		for (final Variation v : variations) {
+			needs |= v.needs;
+		}
+		return needs;
+	}
 }
@@ -0,0 +1,100 @@
+package fractalFlameV3.variations;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.FastMath;
+import fractalFlameV3.Vec2D;
+
+/**
+ * VariationContext for a batch of points, one element of each array per point. The derived
+ * quantities are computed a whole array at a time, so the ones that don't need a call into Math
+ * can be vectorized by the JIT.
+ *
+ * @author aaron
+ *
+ */
+public final class VariationBatch {
+	/**
+	 * the points, these are the arrays passed to set()
+	 */
+	public double[]	      x, y;
+
+	public final double[]	rsq;
+	public final double[]	r;
+	public final double[]	theta;
+	public final double[]	phi;
+	public final double[]	a, b, c, d, e, f;
+
+	/**
+	 * random numbers for the variations that need them, owned by the thread doing the iterating
+	 */
+	public BlockRandom	      random;
+
+	/**
+	 * a single point of the batch and its result, for the variations that are applied a point at
+	 * a time by Variation.v(VariationBatch, double[], double[], int), so they don't allocate
+	 */
+	final VariationContext	point	  = new VariationContext();
+	final Vec2D	          pointOut	= new Vec2D(0, 0);
+
+	/**
+	 * @param size
+	 *            the most points a batch can hold
+	 */
+	public VariationBatch(final int size) {
+		rsq = new double[size];
+		r = new double[size];
+		theta = new double[size];
+		phi = new double[size];
+		a = new double[size];
+		b = new double[size];
+		c = new double[size];
+		d = new double[size];
+		e = new double[size];
+		f = new double[size];
+	}
+
+	/**
+	 * sets the first n points of the batch and computes the quantities in needs
+	 *
+	 * @param affine
+	 *            the genome's affine matrices laid out end to end, see GenomeSnapshot.affine
+	 * @param matrix
+	 *            matrix[i] is the affine matrix that was applied to point i
+	 */
+	public final void set(final double[] x, final double[] y, final double[] affine, final int[] matrix,
+	        final int needs, final int n) {
+		this.x = x;
+		this.y = y;
+		if ((needs & VariationContext.RSQ) != 0) {
+			for (int i = 0; i < n; i++) {
+				rsq[i] = (x[i] * x[i]) + (y[i] * y[i]);
+			}
+		}
+		if ((needs & VariationContext.R) == VariationContext.R) {
+			for (int i = 0; i < n; i++) {
+				r[i] = Math.sqrt(rsq[i]);
+			}
+		}
+		if ((needs & VariationContext.THETA) != 0) {
+			for (int i = 0; i < n; i++) {
+				theta[i] = FastMath.atan2(x[i], y[i]);
+			}
+		}
+		if ((needs & VariationContext.PHI) != 0) {
+			for (int i = 0; i < n; i++) {
+				phi[i] = FastMath.atan2(y[i], x[i]);
+			}
+		}
+		if ((needs & VariationContext.AFFINE) != 0) {
+			for (int i = 0; i < n; i++) {
+				final int m = 6 * matrix[i];
+				a[i] = affine[m + 0];
+				b[i] = affine[m + 1];
+				c[i] = affine[m + 2];
+				d[i] = affine[m + 3];
+				e[i] = affine[m + 4];
+				f[i] = affine[m + 5];
+			}
+		}
+	}
+}
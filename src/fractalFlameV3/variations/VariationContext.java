@@ -0,0 +1,114 @@
+package fractalFlameV3.variations;
+
+import fractalFlameV3.BlockRandom;
+import fractalFlameV3.FastMath;
+import fractalFlameV3.Vec2D;
+
+/**
+ * The point being passed through the variations, along with the quantities derived from it that
+ * the variations share. Each Variation declares in Variation.needs which of the derived
+ * quantities it reads, and the engine computes only the ones that at least one of its variations
+ * needs, once per point, instead of every variation computing all of them for itself.
+ *
+ * @author aaron
+ *
+ */
+public final class VariationContext {
+	/**
+	 * flags for Variation.needs
+	 */
+	public static final int	RSQ	   = 1 << 0;
+	public static final int	R	   = (1 << 1) | RSQ;
+	public static final int	THETA	= 1 << 2;
+	public static final int	PHI	   = 1 << 3;
+	public static final int	AFFINE	= 1 << 4;
+
+	/**
+	 * the point
+	 */
+	public double	        x, y;
+
+	/**
+	 * x^2 + y^2, if RSQ is needed
+	 */
+	public double	        rsq;
+
+	/**
+	 * sqrt(rsq), if R is needed
+	 */
+	public double	        r;
+
+	/**
+	 * atan2(x, y), if THETA is needed
+	 */
+	public double	        theta;
+
+	/**
+	 * atan2(y, x), if PHI is needed
+	 */
+	public double	        phi;
+
+	/**
+	 * coefficients of the affine matrix that was applied to the point, [ [a, b, c] [d, e, f] ], if
+	 * AFFINE is needed
+	 */
+	public double	        a, b, c, d, e, f;
+
+	/**
+	 * random numbers for the variations that need them, owned by the thread doing the iterating
+	 */
+	public BlockRandom	    random;
+
+	/**
+	 * sets the point and computes the quantities in needs
+	 *
+	 * @param affine
+	 *            the affine matrices laid out end to end, see GenomeSnapshot.affine
+	 * @param matrix
+	 *            the affine matrix that was applied to p
+	 */
+	public final void set(final Vec2D p, final double[] affine, final int matrix, final int needs) {
+		x = p.x;
+		y = p.y;
+		if ((needs & RSQ) != 0) {
+			rsq = (x * x) + (y * y);
+		}
+		if ((needs & R) == R) {
+			r = Math.sqrt(rsq);
+		}
+		if ((needs & THETA) != 0) {
+			theta = FastMath.atan2(x, y);
+		}
+		if ((needs & PHI) != 0) {
+			phi = FastMath.atan2(y, x);
+		}
+		if ((needs & AFFINE) != 0) {
+			final int m = 6 * matrix;
+			a = affine[m + 0];
+			b = affine[m + 1];
+			c = affine[m + 2];
+			d = affine[m + 3];
+			e = affine[m + 4];
+			f = affine[m + 5];
+		}
+	}
+
+	/**
+	 * copies point i of a batch into the context
+	 */
+	public final void set(final VariationBatch batch, final int i) {
+		x = batch.x[i];
+		y = batch.y[i];
+		rsq = batch.rsq[i];
+		r = batch.r[i];
+		theta = batch.theta[i];
+		phi = batch.phi[i];
+		a = batch.a[i];
+		b = batch.b[i];
+		c = batch.c[i];
+		d = batch.d[i];
+		e = batch.e[i];
+		f = batch.f[i];
+		random = batch.random;
+	}
+}
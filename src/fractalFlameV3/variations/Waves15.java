@@ -1,5 +1,6 @@
 package fractalFlameV3.variations;
 
+import fractalFlameV3.FastMath;
 import fractalFlameV3.Vec2D;
 import fractalFlameV3.fractalGenome.FractalGenome;
 
@@ -7,27 +8,20 @@ public final class Waves15 extends Variation {
 	public Waves15(final FractalGenome currentGenome) {
 		super(currentGenome);
 		ID = 15;
+		needs = VariationContext.AFFINE;
 	}
 
 	@Override
-	public Vec2D v(final Vec2D pIn, final Vec2D pOut) {
-		final double x = pIn.x;
-		final double y = pIn.y;
-		final double rsq = (x * x) + (y * y);
-		final double r = Math.sqrt(rsq);
-		final double t = Math.atan2(x, y);
-		final double p = Math.atan2(y, x);
+	public Vec2D v(final VariationContext in, final Vec2D pOut) {
+		final double x = in.x;
+		final double y = in.y;
+		final double b = in.b;
+		final double c = in.c;
+		final double e = in.e;
+		final double f = in.f;
 
-		final double[][] currentMatrix = currentGenome.affineMatrices[currentGenome.currentMatrix];
-		final double a = currentMatrix[0][0];
-		final double b = currentMatrix[0][1];
-		final double c = currentMatrix[0][2];
-		final double d = currentMatrix[1][0];
-		final double e = currentMatrix[1][1];
-		final double f = currentMatrix[1][2];
-
-		pOut.x = x + (b * Math.sin(y / (c * c)));
-		pOut.y = y + (e * Math.sin(x / (f * f)));
+		pOut.x = x + (b * FastMath.sin(y / (c * c)));
+		pOut.y = y + (e * FastMath.sin(x / (f * f)));
 
 		return pOut;
 	}
@@ -1972,14 +1972,35 @@ public class PGraphicsJava2D extends PGraphics /* PGraphics2D */{
 	 */
 	@Override
 	public void updatePixels(final int x, final int y, final int c, final int d) {
-		// if ((x == 0) && (y == 0) && (c == width) && (d == height)) {
-		if ((x != 0) || (y != 0) || (c != width) || (d != height)) {
-			// Show a warning message, but continue anyway.
-			PGraphics.showVariationWarning("updatePixels(x, y, w, h)");
+		final int x1 = PApplet.max(0, x);
+		final int y1 = PApplet.max(0, y);
+		final int x2 = PApplet.min(width, x + c);
+		final int y2 = PApplet.min(height, y + d);
+		if ((x1 >= x2) || (y1 >= y2)) {
+			return;
+		}
+		if ((x1 == 0) && (y1 == 0) && (x2 == width) && (y2 == height)) {
+			this.updatePixels();
+			return;
+		}
+
+		// only copy the requested region, one row at a time because the raster expects the
+		// region's pixels to be packed together
+		final WritableRaster raster = ((BufferedImage) (primarySurface ? offscreen : image)).getRaster();
+		if ((regionPixels == null) || (regionPixels.length < (x2 - x1))) {
+			regionPixels = new int[width];
+		}
+		for (int row = y1; row < y2; row++) {
+			System.arraycopy(pixels, x1 + (row * width), regionPixels, 0, x2 - x1);
+			raster.setDataElements(x1, row, x2 - x1, 1, regionPixels);
 		}
-		this.updatePixels();
 	}
 
+	/**
+	 * scratch row used by updatePixels(x, y, w, h)
+	 */
+	int[]	regionPixels;
+
 	// ////////////////////////////////////////////////////////////
 
 	// GET/SET